@@ -0,0 +1,72 @@
+package com.hmdp.benchmark;
+
+import cn.hutool.core.bean.BeanUtil;
+import com.hmdp.dto.UserDTO;
+import com.hmdp.entity.VoucherOrder;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * redis hash / stream 消息转对象：BeanUtil.fillBeanWithMap 与手写映射对比
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BeanMappingBenchmark {
+
+    /**
+     * 登录用户hash，和 RefreshTokenInterceptor 读到的一样
+     */
+    private Map<Object, Object> userMap;
+
+    /**
+     * stream.orders 消息，和 VoucherOrderHandler 读到的一样
+     */
+    private Map<Object, Object> orderMap;
+
+    @Setup
+    public void setup() {
+        userMap = new HashMap<>();
+        userMap.put("id", "1010");
+        userMap.put("nickName", "user_abcdefghij");
+        userMap.put("icon", "/imgs/icons/user1010.jpg");
+
+        orderMap = new HashMap<>();
+        orderMap.put("userId", "1010");
+        orderMap.put("voucherId", "10");
+        orderMap.put("id", "283893408628719617");
+    }
+
+    @Benchmark
+    public UserDTO userDtoFillBeanWithMap() {
+        return BeanUtil.fillBeanWithMap(userMap, new UserDTO(), false);
+    }
+
+    @Benchmark
+    public UserDTO userDtoDirect() {
+        UserDTO user = new UserDTO();
+        user.setId(Long.valueOf((String) userMap.get("id")));
+        user.setNickName((String) userMap.get("nickName"));
+        user.setIcon((String) userMap.get("icon"));
+        return user;
+    }
+
+    @Benchmark
+    public VoucherOrder voucherOrderFillBeanWithMap() {
+        return BeanUtil.fillBeanWithMap(orderMap, new VoucherOrder(), true);
+    }
+
+    @Benchmark
+    public VoucherOrder voucherOrderDirect() {
+        return new VoucherOrder()
+                .setId(Long.valueOf((String) orderMap.get("id")))
+                .setUserId(Long.valueOf((String) orderMap.get("userId")))
+                .setVoucherId(Long.valueOf((String) orderMap.get("voucherId")));
+    }
+}
@@ -0,0 +1,73 @@
+package com.hmdp.benchmark;
+
+import cn.hutool.json.JSONUtil;
+import com.hmdp.entity.Blog;
+import com.hmdp.entity.Shop;
+import com.hmdp.utils.BinaryCacheCodec;
+import com.hmdp.utils.JsonCacheCodec;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * cache:shop:* 缓存值：原来的 hutool JSON 字符串与二进制编码对比，
+ * 每条缓存的字节数在启动时打印
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CacheCodecBenchmark {
+
+    /**
+     * 压缩阈值，0表示不压缩
+     */
+    @Param({"0", "256"})
+    public int compressThreshold;
+
+    private BinaryCacheCodec codec;
+    private Shop shop;
+    private String shopJson;
+    private byte[] shopBinary;
+    private byte[] blogBinary;
+
+    @Setup
+    public void setup() {
+        codec = new BinaryCacheCodec(compressThreshold == 0 ? Integer.MAX_VALUE : compressThreshold, new JsonCacheCodec());
+        shop = Fixtures.shop();
+        Blog blog = Fixtures.blog();
+        shopJson = JSONUtil.toJsonStr(shop);
+        shopBinary = codec.encode(shop);
+        blogBinary = codec.encode(blog);
+        if (!shop.equals(codec.decode(shopBinary, Shop.class)) || !blog.equals(codec.decode(blogBinary, Blog.class))) {
+            throw new IllegalStateException("二进制编码解码结果不一致");
+        }
+        System.out.printf("%n[bytes/entry] compressThreshold=%d shop: json=%d binary=%d, blog: json=%d binary=%d%n",
+                compressThreshold,
+                shopJson.getBytes(StandardCharsets.UTF_8).length, shopBinary.length,
+                JSONUtil.toJsonStr(blog).getBytes(StandardCharsets.UTF_8).length, blogBinary.length);
+    }
+
+    @Benchmark
+    public Shop shopDecodeJson() {
+        return JSONUtil.toBean(shopJson, Shop.class);
+    }
+
+    @Benchmark
+    public Shop shopDecodeBinary() {
+        return codec.decode(shopBinary, Shop.class);
+    }
+
+    @Benchmark
+    public Blog blogDecodeBinary() {
+        return codec.decode(blogBinary, Blog.class);
+    }
+
+    @Benchmark
+    public byte[] shopEncodeBinary() {
+        return codec.encode(shop);
+    }
+}
@@ -0,0 +1,57 @@
+package com.hmdp.benchmark;
+
+import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.SnowflakeIdWorker;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 订单id生成策略对比：redis逐个INCR、redis号段、雪花算法
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+@Fork(1)
+public class IdWorkerBenchmark {
+
+    private RedisIdWorker incrWorker;
+    private RedisIdWorker segmentWorker;
+    private SnowflakeIdWorker snowflakeWorker;
+
+    @Setup
+    public void setup() {
+        incrWorker = new RedisIdWorker(new InMemoryRedisTemplate());
+
+        segmentWorker = new RedisIdWorker(new InMemoryRedisTemplate());
+        ReflectionTestUtils.setField(segmentWorker, "segmentEnabled", true);
+        ReflectionTestUtils.setField(segmentWorker, "blockSize", 1000L);
+
+        snowflakeWorker = new SnowflakeIdWorker(new InMemoryRedisTemplate());
+        ReflectionTestUtils.invokeMethod(snowflakeWorker, "init");
+    }
+
+    @TearDown
+    public void tearDown() {
+        ReflectionTestUtils.invokeMethod(snowflakeWorker, "destroy");
+    }
+
+    @Benchmark
+    public long redisIncr() {
+        return incrWorker.nextId("order");
+    }
+
+    @Benchmark
+    public long redisSegment() {
+        return segmentWorker.nextId("order");
+    }
+
+    @Benchmark
+    public long snowflake() {
+        return snowflakeWorker.nextId("order");
+    }
+}
@@ -0,0 +1,62 @@
+package com.hmdp.benchmark;
+
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 进程内的redis替身，只实现基准测试用到的 get/set/setIfAbsent/increment/delete 和 unlock.lua，
+ * 用来测量工具类本身的开销，不包含网络往返
+ */
+public class InMemoryRedisTemplate extends StringRedisTemplate {
+
+    private final Map<String, String> data = new ConcurrentHashMap<>();
+
+    @SuppressWarnings("unchecked")
+    private final ValueOperations<String, String> valueOps = (ValueOperations<String, String>) Proxy.newProxyInstance(
+            ValueOperations.class.getClassLoader(),
+            new Class<?>[]{ValueOperations.class},
+            (proxy, method, args) -> {
+                String key = (String) args[0];
+                switch (method.getName()) {
+                    case "get":
+                        return data.get(key);
+                    case "set":
+                        data.put(key, (String) args[1]);
+                        return null;
+                    case "setIfAbsent":
+                        return data.putIfAbsent(key, (String) args[1]) == null;
+                    case "increment":
+                        long delta = args.length > 1 ? ((Number) args[1]).longValue() : 1L;
+                        return Long.valueOf(data.merge(key, String.valueOf(delta),
+                                (old, d) -> String.valueOf(Long.parseLong(old) + Long.parseLong(d))));
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                }
+            });
+
+    @Override
+    public ValueOperations<String, String> opsForValue() {
+        return valueOps;
+    }
+
+    @Override
+    public Boolean delete(String key) {
+        return data.remove(key) != null;
+    }
+
+    /**
+     * 只模拟 unlock.lua：比较后删除
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T execute(RedisScript<T> script, List<String> keys, Object... args) {
+        String key = keys.get(0);
+        return (T) (data.remove(key, args[0]) ? Long.valueOf(1) : Long.valueOf(0));
+    }
+}
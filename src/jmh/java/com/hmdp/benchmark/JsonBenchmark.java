@@ -0,0 +1,53 @@
+package com.hmdp.benchmark;
+
+import cn.hutool.json.JSONUtil;
+import com.hmdp.entity.Blog;
+import com.hmdp.entity.Shop;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 缓存值的 hutool JSON 序列化与反序列化开销
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonBenchmark {
+
+    private Shop shop;
+    private Blog blog;
+    private String shopJson;
+    private String blogJson;
+
+    @Setup
+    public void setup() {
+        shop = Fixtures.shop();
+        blog = Fixtures.blog();
+        shopJson = JSONUtil.toJsonStr(shop);
+        blogJson = JSONUtil.toJsonStr(blog);
+    }
+
+    @Benchmark
+    public String shopToJson() {
+        return JSONUtil.toJsonStr(shop);
+    }
+
+    @Benchmark
+    public Shop shopFromJson() {
+        return JSONUtil.toBean(shopJson, Shop.class);
+    }
+
+    @Benchmark
+    public String blogToJson() {
+        return JSONUtil.toJsonStr(blog);
+    }
+
+    @Benchmark
+    public Blog blogFromJson() {
+        return JSONUtil.toBean(blogJson, Blog.class);
+    }
+}
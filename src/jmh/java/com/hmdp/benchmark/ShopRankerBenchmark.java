@@ -0,0 +1,76 @@
+package com.hmdp.benchmark;
+
+import com.hmdp.dto.ShopRankQuery;
+import com.hmdp.utils.ShopCandidates;
+import com.hmdp.utils.ShopGeoIndex;
+import com.hmdp.utils.ShopRanker;
+import com.hmdp.utils.WeightedShopScorer;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 附近店铺排序阶段的耗时：5公里内的候选店铺综合打分取前50，
+ * 不筛选以及按价格区间+正在营业筛选两种情况
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ShopRankerBenchmark {
+
+    private static final int LIMIT = 50;
+    private static final int NOON = 12 * 60;
+
+    /**
+     * 半径内的候选店铺数
+     */
+    @Param({"500", "5000"})
+    public int candidates;
+
+    private ShopCandidates shopCandidates;
+    private WeightedShopScorer scorer;
+    private ShopRankQuery composite;
+    private ShopRankQuery filtered;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        int[] hours = {
+                ShopCandidates.parseOpenHours("10:00-22:00"),
+                ShopCandidates.parseOpenHours("17:00-02:00"),
+                ShopCandidates.parseOpenHours("00:00-24:00"),
+                ShopCandidates.UNKNOWN_HOURS
+        };
+        shopCandidates = new ShopCandidates(5000, 256);
+        for (int i = 0; i < candidates; i++) {
+            int sold = random.nextInt(10000);
+            int comments = random.nextInt(5000);
+            shopCandidates.add(i, random.nextDouble() * 5000, 20 + random.nextInt(300), random.nextInt(51),
+                    sold, comments, ShopCandidates.log(sold), ShopCandidates.log(comments),
+                    hours[random.nextInt(hours.length)]);
+        }
+        scorer = new WeightedShopScorer(0.35, 0.3, 0.15, 0.1, 0.1);
+        composite = new ShopRankQuery();
+        composite.setSortBy(WeightedShopScorer.NAME);
+        filtered = new ShopRankQuery();
+        filtered.setSortBy(WeightedShopScorer.NAME);
+        filtered.setMinPrice(50L);
+        filtered.setMaxPrice(150L);
+        filtered.setOpenNow(true);
+    }
+
+    @Benchmark
+    public List<ShopGeoIndex.Nearby> composite() {
+        return ShopRanker.rank(shopCandidates, scorer, composite, LIMIT, NOON);
+    }
+
+    @Benchmark
+    public List<ShopGeoIndex.Nearby> compositeFiltered() {
+        return ShopRanker.rank(shopCandidates, scorer, filtered, LIMIT, NOON);
+    }
+}
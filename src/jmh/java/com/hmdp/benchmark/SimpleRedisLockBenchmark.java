@@ -0,0 +1,32 @@
+package com.hmdp.benchmark;
+
+import com.hmdp.utils.SimpleRedisLock;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SimpleRedisLock 加锁解锁的本地开销（线程标识拼接、脚本参数组装），redis由进程内替身代替
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SimpleRedisLockBenchmark {
+
+    private SimpleRedisLock lock;
+
+    @Setup
+    public void setup() {
+        lock = new SimpleRedisLock(new InMemoryRedisTemplate(), "order:" + Thread.currentThread().getName());
+    }
+
+    @Benchmark
+    public boolean tryLockAndUnlock() {
+        boolean success = lock.tryLock(10);
+        lock.unLock();
+        return success;
+    }
+}
@@ -0,0 +1,82 @@
+package com.hmdp.controller;
+
+import com.hmdp.dto.Result;
+import com.hmdp.service.IShopTypeService;
+import com.hmdp.utils.HotKeyDetector;
+import com.hmdp.utils.ShopCacheWarmer;
+import com.hmdp.utils.ShopGeoSync;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.annotation.Resource;
+
+/**
+ * 缓存运维接口，只有 hmdp.admin.user-ids 里的用户可以访问
+ */
+@RestController
+@RequestMapping("/admin/cache")
+public class CacheAdminController {
+
+    @Resource
+    private ShopCacheWarmer shopCacheWarmer;
+
+    @Resource
+    private HotKeyDetector hotKeyDetector;
+
+    @Resource
+    private IShopTypeService shopTypeService;
+
+    @Resource
+    private ShopGeoSync shopGeoSync;
+
+    /**
+     * 触发店铺缓存预热
+     * @return 预热进度
+     */
+    @PostMapping("/warmup")
+    public Result warmUp() {
+        if (!shopCacheWarmer.start()) {
+            return Result.fail("预热正在进行中");
+        }
+        return Result.ok(shopCacheWarmer.progress());
+    }
+
+    /**
+     * 查询店铺缓存预热进度
+     */
+    @GetMapping("/warmup")
+    public Result warmUpProgress() {
+        return Result.ok(shopCacheWarmer.progress());
+    }
+
+    /**
+     * 查询当前热点key
+     * @return key及窗口内估计访问次数，从高到低
+     */
+    @GetMapping("/hot-keys")
+    public Result hotKeys() {
+        return Result.ok(hotKeyDetector.hotKeys());
+    }
+
+    /**
+     * 店铺类型变更后刷新所有节点的快照
+     * @return 新的版本号
+     */
+    @PostMapping("/shop-type/refresh")
+    public Result refreshShopTypes() {
+        return Result.ok(shopTypeService.bumpVersion().getVersion());
+    }
+
+    /**
+     * 触发店铺坐标对账，修复redis geo和数据库的差异
+     */
+    @PostMapping("/geo/reconcile")
+    public Result reconcileGeo() {
+        if (!shopGeoSync.startReconcile()) {
+            return Result.fail("对账正在进行中");
+        }
+        return Result.ok();
+    }
+}
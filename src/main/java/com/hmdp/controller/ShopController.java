@@ -4,12 +4,14 @@ package com.hmdp.controller;
 import cn.hutool.core.util.StrUtil;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.ShopRankQuery;
 import com.hmdp.entity.Shop;
 import com.hmdp.service.IShopService;
 import com.hmdp.utils.SystemConstants;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
+import java.util.List;
 
 /**
  * <p>
@@ -36,6 +38,19 @@ public class ShopController {
         return shopService.queryById(id);
     }
 
+    /**
+     * 批量查询商铺，用于渲染商铺卡片
+     * @param ids 商铺id，逗号分隔，最多 MAX_BATCH_IDS 个
+     * @return 按ids顺序的商铺列表
+     */
+    @GetMapping("/of/ids")
+    public Result queryShopByIds(@RequestParam("ids") List<Long> ids) {
+        if (ids.size() > SystemConstants.MAX_BATCH_IDS) {
+            return Result.fail("一次最多查询" + SystemConstants.MAX_BATCH_IDS + "个商铺");
+        }
+        return Result.ok(shopService.queryByIds(ids));
+    }
+
     /**
      * 新增商铺信息
      * @param shop 商铺数据
@@ -65,6 +80,8 @@ public class ShopController {
      * 根据商铺类型分页查询商铺信息
      * @param typeId 商铺类型
      * @param current 页码
+     * @param cursor 游标，带上该参数（第一页传空）时按游标分页，返回列表和下一页的游标
+     * @param rankQuery 带坐标时的排序方式（sortBy）和筛选条件（minPrice、maxPrice、openNow）
      * @return 商铺列表
      */
     @GetMapping("/of/type")
@@ -72,9 +89,14 @@ public class ShopController {
             @RequestParam("typeId") Integer typeId,
             @RequestParam(value = "current", defaultValue = "1") Integer current,
             @RequestParam(value = "x", required = false) Double x,
-            @RequestParam(value = "y", required = false) Double y
+            @RequestParam(value = "y", required = false) Double y,
+            @RequestParam(value = "cursor", required = false) String cursor,
+            ShopRankQuery rankQuery
     ) {
-        return shopService.queryShopByType(typeId, current, x, y);
+        if (cursor != null) {
+            return shopService.scrollShopByType(typeId, cursor, x, y, rankQuery);
+        }
+        return shopService.queryShopByType(typeId, current, x, y, rankQuery);
     }
 
     /**
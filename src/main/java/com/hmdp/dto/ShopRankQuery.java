@@ -0,0 +1,23 @@
+package com.hmdp.dto;
+
+import lombok.Data;
+
+/**
+ * 附近店铺的排序方式和筛选条件
+ */
+@Data
+public class ShopRankQuery {
+    /**
+     * 排序方式，为空按距离排序，其他取值见 IShopScorer.name
+     */
+    private String sortBy;
+    /**
+     * 人均价格区间，为空不限
+     */
+    private Long minPrice;
+    private Long maxPrice;
+    /**
+     * 只看正在营业的店铺
+     */
+    private Boolean openNow;
+}
@@ -0,0 +1,28 @@
+package com.hmdp.dto;
+
+import com.hmdp.entity.ShopType;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * 店铺类型列表的不可变快照，响应体提前序列化好
+ */
+@Getter
+@AllArgsConstructor
+public class ShopTypeSnapshot {
+    /**
+     * redis里的版本号
+     */
+    private final long version;
+    private final List<ShopType> types;
+    /**
+     * Result.ok(types) 序列化后的JSON
+     */
+    private final byte[] body;
+    /**
+     * 按响应体内容计算，所有节点一致
+     */
+    private final String etag;
+}
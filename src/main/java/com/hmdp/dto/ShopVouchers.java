@@ -0,0 +1,14 @@
+package com.hmdp.dto;
+
+import com.hmdp.entity.Voucher;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * 缓存的店铺优惠券列表，只包含静态信息，库存以redis为准
+ */
+@Data
+public class ShopVouchers {
+    private List<Voucher> vouchers;
+}
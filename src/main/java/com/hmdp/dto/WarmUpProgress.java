@@ -0,0 +1,17 @@
+package com.hmdp.dto;
+
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+@Data
+public class WarmUpProgress {
+    private Boolean running;
+    private Long scanned;
+    private Long cached;
+    private Long geoAdded;
+    private Long batches;
+    private LocalDateTime startTime;
+    private LocalDateTime endTime;
+    private String error;
+}
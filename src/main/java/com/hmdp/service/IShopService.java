@@ -1,9 +1,12 @@
 package com.hmdp.service;
 
 import com.hmdp.dto.Result;
+import com.hmdp.dto.ShopRankQuery;
 import com.hmdp.entity.Shop;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.List;
+
 /**
  * <p>
  *  服务类
@@ -16,7 +19,20 @@ public interface IShopService extends IService<Shop> {
 
     Result queryById(Long id);
 
+    /**
+     * 批量查询店铺，按ids顺序返回，不存在的id跳过
+     */
+    List<Shop> queryByIds(List<Long> ids);
+
     Result update(Shop shop);
 
-    Result queryShopByType(Integer typeId, Integer current, Double x, Double y);
+    /**
+     * @param rankQuery 带坐标时的排序方式和筛选条件，可以为null
+     */
+    Result queryShopByType(Integer typeId, Integer current, Double x, Double y, ShopRankQuery rankQuery);
+
+    /**
+     * 游标分页查询附近店铺，cursor为空时查询第一页
+     */
+    Result scrollShopByType(Integer typeId, String cursor, Double x, Double y, ShopRankQuery rankQuery);
 }
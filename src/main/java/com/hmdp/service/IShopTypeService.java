@@ -1,5 +1,6 @@
 package com.hmdp.service;
 
+import com.hmdp.dto.ShopTypeSnapshot;
 import com.hmdp.entity.ShopType;
 import com.baomidou.mybatisplus.extension.service.IService;
 
@@ -13,4 +14,13 @@ import com.baomidou.mybatisplus.extension.service.IService;
  */
 public interface IShopTypeService extends IService<ShopType> {
 
+    /**
+     * 当前的店铺类型快照
+     */
+    ShopTypeSnapshot snapshot();
+
+    /**
+     * 店铺类型变更后调用，升级redis里的版本号，所有节点重新加载快照
+     */
+    ShopTypeSnapshot bumpVersion();
 }
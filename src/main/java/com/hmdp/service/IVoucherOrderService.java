@@ -4,6 +4,8 @@ import com.hmdp.dto.Result;
 import com.hmdp.entity.VoucherOrder;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.List;
+
 /**
  * <p>
  *  服务类
@@ -17,4 +19,6 @@ public interface IVoucherOrderService extends IService<VoucherOrder> {
     Result seckillVouchor(Long voucherId);
 //
     void createVoucherOrder(VoucherOrder VoucherOrder);
+
+    int createVoucherOrderBatch(List<VoucherOrder> orders);
 }
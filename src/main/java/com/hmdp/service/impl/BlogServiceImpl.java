@@ -15,6 +15,8 @@ import com.hmdp.service.IBlogService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.service.IFollowService;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.BloomFilters;
+import com.hmdp.utils.HotKeyDetector;
 import com.hmdp.utils.RedisConstants;
 import com.hmdp.utils.SystemConstants;
 import com.hmdp.utils.UserHolder;
@@ -25,7 +27,9 @@ import org.springframework.stereotype.Service;
 import javax.annotation.Resource;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -49,14 +53,37 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
     @Resource
     private IFollowService followService;
 
+    @Resource
+    private BloomFilters bloomFilters;
+
+    @Resource
+    private HotKeyDetector hotKeyDetector;
+
     @Override
     public Result queryBlogById(Long id) {
-        // 1、查询blog
-        Blog blog = getById(id);
-
-        if(blog == null){
+        // 0、布隆过滤器拦截不存在的id
+        if (!bloomFilters.mightContain(BloomFilters.BLOG, id)){
             return Result.fail("博客不存在");
         }
+        // 0.1 记录访问，热点笔记先读短期本地副本，点赞数最多旧一个副本TTL
+        String key = RedisConstants.BLOG_KEY + id;
+        boolean hot = hotKeyDetector.record(key);
+        Blog local = hot ? hotKeyDetector.getLocal(key, Blog.class) : null;
+        Blog blog;
+        if (local != null){
+            // 作者和点赞状态按请求填写，副本按拷贝使用
+            blog = BeanUtil.copyProperties(local, Blog.class);
+        } else {
+            // 1、查询blog
+            blog = getById(id);
+
+            if(blog == null){
+                return Result.fail("博客不存在");
+            }
+            if (hot){
+                hotKeyDetector.putLocal(key, BeanUtil.copyProperties(blog, Blog.class));
+            }
+        }
         // 2、查询blog有关用户
         queryBlogUser(blog);
         
@@ -85,11 +112,9 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
                 .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
         // 获取当前页数据
         List<Blog> records = page.getRecords();
-        // 查询用户
-        records.forEach(blog -> {
-            this.queryBlogUser(blog);
-            this.isBlogLiked(blog);
-        });
+        // 查询用户，一次批量查询
+        queryBlogUsers(records);
+        records.forEach(this::isBlogLiked);
         return Result.ok(records);
     }
 
@@ -154,6 +179,7 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         if(!success){
             return Result.fail("新增笔记失败");
         }
+        bloomFilters.put(BloomFilters.BLOG, blog.getId());
         //查询所有笔记作者粉丝
         List<Follow> follows = followService.query().eq("follow_user_id", user.getId()).list();
         //推送笔记id给粉丝
@@ -200,8 +226,8 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         // 4、根据id查询blog
         String idStr = StrUtil.join(",", ids);
         List<Blog> blogs = query().in("id", ids).last("ORDER BY FIELD(id," + idStr + ")").list();
+        queryBlogUsers(blogs);
         for (Blog blog :blogs){
-            queryBlogUser(blog);
             isBlogLiked(blog);
         }
 
@@ -213,6 +239,25 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         return Result.ok(r);
     }
 
+    /**
+     * 一次查询出所有笔记的作者
+     */
+    private void queryBlogUsers(List<Blog> blogs) {
+        if (blogs.isEmpty()){
+            return;
+        }
+        Set<Long> userIds = blogs.stream().map(Blog::getUserId).collect(Collectors.toSet());
+        Map<Long, User> users = userService.listByIds(userIds).stream()
+                .collect(Collectors.toMap(User::getId, Function.identity()));
+        for (Blog blog : blogs){
+            User user = users.get(blog.getUserId());
+            if (user != null){
+                blog.setName(user.getNickName());
+                blog.setIcon(user.getIcon());
+            }
+        }
+    }
+
     private void queryBlogUser(Blog blog) {
         Long userId = blog.getUserId();
         User user = userService.getById(userId);
@@ -1,18 +1,28 @@
 package com.hmdp.service.impl;
 
-import cn.hutool.core.util.BooleanUtil;
+import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONUtil;
+import com.baomidou.mybatisplus.core.conditions.update.UpdateWrapper;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import com.hmdp.dto.CursorResult;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.ShopRankQuery;
 import com.hmdp.entity.Shop;
 import com.hmdp.mapper.ShopMapper;
 import com.hmdp.service.IShopService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.BloomFilters;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CacheInvalidator;
+import com.hmdp.utils.HotKeyDetector;
+import com.hmdp.utils.NearCache;
 import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.ShopGeoCursors;
+import com.hmdp.utils.ShopGeoIndex;
+import com.hmdp.utils.ShopGeoSync;
+import com.hmdp.utils.ShopRanker;
 import com.hmdp.utils.SystemConstants;
 import org.springframework.data.geo.Distance;
-import org.springframework.data.geo.GeoResult;
 import org.springframework.data.geo.GeoResults;
 import org.springframework.data.redis.connection.RedisGeoCommands;
 import org.springframework.data.redis.core.StringRedisTemplate;
@@ -20,10 +30,12 @@ import org.springframework.data.redis.domain.geo.GeoReference;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
 
-import java.time.Duration;
+import java.io.Serializable;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 
 import static com.hmdp.utils.RedisConstants.*;
 
@@ -41,91 +53,150 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private NearCache nearCache;
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private BloomFilters bloomFilters;
+
+    @Resource
+    private CacheInvalidator cacheInvalidator;
+
+    @Resource
+    private HotKeyDetector hotKeyDetector;
+
+    @Resource
+    private ShopGeoIndex shopGeoIndex;
+
+    @Resource
+    private ShopGeoCursors shopGeoCursors;
+
+    @Resource
+    private ShopGeoSync shopGeoSync;
+
+    @Resource
+    private ShopRanker shopRanker;
+
+    /**
+     * 附近店铺的查询半径
+     */
+    private static final double NEARBY_RADIUS_METERS = 5000;
+
+    @PostConstruct
+    private void init(){
+        // 店铺缓存按version列带版本写入
+        cacheClient.registerVersion(Shop.class, Shop::getVersion);
+    }
+
     @Override
     public Result queryById(Long id) {
-
+        // 0、布隆过滤器拦截不存在的id
+        if (!bloomFilters.mightContain(BloomFilters.SHOP, id)){
+            return Result.fail("店铺不存在!");
+        }
+        // 0.1 记录访问，本地缓存命中的请求也要计入热点统计
+        String key = CACHE_SHOP_KEY + id;
+        boolean hot = hotKeyDetector.record(key);
+        // 0.2 热点key先读短期本地副本
+        Shop shop = hot ? hotKeyDetector.getLocal(key, Shop.class) : null;
+        if (shop != null){
+            return Result.ok(shop);
+        }
+        // 0.3 再查本地一级缓存
+        shop = nearCache.get(key);
+        if (shop != null){
+            if (hot){
+                hotKeyDetector.putLocal(key, shop);
+            }
+            return Result.ok(shop);
+        }
         // 缓存穿透
-//        Shop shop = queryWithPassThrough(id);
+//        shop = cacheClient.queryWithPassThrough(CACHE_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+
+        // 逻辑过期解决缓存击穿
+//        shop = cacheClient.queryWithLogicalExpire(CACHE_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
 
         // 互斥锁解决缓存击穿
-        Shop shop = queryWithMutex(id);
+        shop = cacheClient.queryWithMutex(CACHE_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
         if (shop == null){
             return Result.fail("店铺不存在!");
         }
-
+        nearCache.put(key, shop);
+        if (hot){
+            hotKeyDetector.putLocal(key, shop);
+        }
         return Result.ok(shop);
     }
 
-
-    public Shop queryWithPassThrough(Long id){
-        String key = CACHE_SHOP_KEY + id;
-        // 1、从redis查询商铺缓存
-        String shopJson = stringRedisTemplate.opsForValue().get(key);
-        // 2、查询是否存在
-        if (StrUtil.isNotBlank(shopJson)) {
-            // 3、存在，直接返回
-            return JSONUtil.toBean(shopJson, Shop.class);
-        }
-        if (shopJson != null){
-            return null;
-        }
-        // 实现缓存冲重建
-        // 4.1获取互斥锁
-        Shop shop = null;
-        try {
-            String lockKey = "lock:shop:" + id;
-            Boolean isLock = tryLock(lockKey);
-            // 4.2 判断是否成功
-            if (!isLock){
-                // 4.3 失败则休眠并重试
-                Thread.sleep(50);
-                return queryWithMutex(id);
+    @Override
+    public List<Shop> queryByIds(List<Long> ids) {
+        // 1、布隆过滤器去掉不存在的id，热点key先读短期本地副本
+        // 调用方会在结果上设置距离，本地副本按拷贝读写，不和其他请求共享对象
+        List<Long> existIds = new ArrayList<>(ids.size());
+        Map<Long, Shop> found = new HashMap<>(ids.size() * 2);
+        Set<Long> hotIds = new HashSet<>();
+        List<Long> remoteIds = new ArrayList<>(ids.size());
+        for (Long id : ids){
+            if (!bloomFilters.mightContain(BloomFilters.SHOP, id)){
+                continue;
             }
-            // 4.4 成功根据id查询到数据库
-            shop = getById(id);
-            // 5、不存在，返回错误
-            if (shop == null){
-                // 将null写入redis
-                stringRedisTemplate.opsForValue().set(key, "", Duration.ofMinutes(CACHE_NULL_TTL));
-                return null;
+            existIds.add(id);
+            String key = CACHE_SHOP_KEY + id;
+            if (hotKeyDetector.record(key)){
+                hotIds.add(id);
+                Shop local = hotKeyDetector.getLocal(key, Shop.class);
+                if (local != null){
+                    found.put(id, BeanUtil.copyProperties(local, Shop.class));
+                    continue;
+                }
             }
-            // 6、存在，写入redis，然后再返回
-            stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(shop), Duration.ofMinutes(CACHE_SHOP_TTL));
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
-        }finally {
-            // 7 释放互斥锁
-            unLock(key);
+            remoteIds.add(id);
         }
-
-        return shop;
+        // 2、其余的一次MGET，未命中的一次IN查询，再pipeline回写
+        List<Shop> loaded = cacheClient.queryByIds(
+                CACHE_SHOP_KEY, remoteIds, Shop.class, this::listByIds, Shop::getId, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        for (Shop shop : loaded){
+            found.put(shop.getId(), shop);
+            if (hotIds.contains(shop.getId())){
+                hotKeyDetector.putLocal(CACHE_SHOP_KEY + shop.getId(), BeanUtil.copyProperties(shop, Shop.class));
+            }
+        }
+        // 3、按ids顺序返回，不存在的id跳过
+        List<Shop> result = new ArrayList<>(existIds.size());
+        for (Long id : existIds){
+            Shop shop = found.get(id);
+            if (shop != null){
+                result.add(shop);
+            }
+        }
+        return result;
     }
 
-
-    public Shop queryWithMutex(Long id){
-        String key = CACHE_SHOP_KEY + id;
-        // 1、从redis查询商铺缓存
-        String shopJson = stringRedisTemplate.opsForValue().get(key);
-        // 2、查询是否存在
-        if (StrUtil.isNotBlank(shopJson)) {
-            // 3、存在，直接返回
-            return JSONUtil.toBean(shopJson, Shop.class);
-        }
-        if (shopJson != null){
-            return null;
-        }
-        // 4、不存在，根据id查询数据库路
-        Shop shop = getById(id);
-        // 5、不存在，返回错误
-        if (shop == null){
-            // 将null写入redis
-            stringRedisTemplate.opsForValue().set(key, "", Duration.ofMinutes(CACHE_NULL_TTL));
-            return null;
+    @Override
+    public boolean save(Shop shop) {
+        boolean success = super.save(shop);
+        if (success){
+            bloomFilters.put(BloomFilters.SHOP, shop.getId());
+            shopGeoSync.changed(shop.getId());
+            shopGeoIndex.changed(shop.getId());
         }
-        // 6、存在，写入redis，然后再返回
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(shop), Duration.ofMinutes(CACHE_SHOP_TTL));
+        return success;
+    }
 
-        return shop;
+    @Override
+    public boolean removeById(Serializable id) {
+        boolean success = super.removeById(id);
+        if (success){
+            Long shopId = Long.valueOf(id.toString());
+            // 提交后删除缓存、从geo和本地坐标索引中删除
+            cacheInvalidator.invalidate(CACHE_SHOP_KEY + shopId);
+            shopGeoSync.changed(shopId);
+            shopGeoIndex.changed(shopId);
+        }
+        return success;
     }
 
     @Override
@@ -135,16 +206,24 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         if (id == null){
             return Result.fail("店铺不能为空");
         }
-        // 1、更新数据库
-        updateById(shop);
-        // 2、删除缓存
-        stringRedisTemplate.delete(CACHE_SHOP_KEY + id);
-        //
+        // 1、更新数据库，version加1，行锁保证同一行的版本严格递增
+        shop.setVersion(null);
+        boolean success = update(shop, new UpdateWrapper<Shop>().eq("id", id).setSql("version = version + 1"));
+        if (!success){
+            return Result.fail("店铺不存在");
+        }
+        // 1.1 事务内读到的是本次更新后的版本，就是这次更新的缓存版本
+        Long version = query().select("version").eq("id", id).one().getVersion();
+        // 2、事务提交后删除缓存留下墓碑，并通知所有节点删除本地缓存，延迟后再删一次
+        cacheInvalidator.invalidate(CACHE_SHOP_KEY + id, version);
+        // 3、事务提交后同步redis geo，通知所有节点更新本地坐标索引
+        shopGeoSync.changed(id);
+        shopGeoIndex.changed(id);
         return Result.ok();
     }
 
     @Override
-    public Result queryShopByType(Integer typeId, Integer current, Double x, Double y) {
+    public Result queryShopByType(Integer typeId, Integer current, Double x, Double y, ShopRankQuery rankQuery) {
         // 1判断需不需要坐标排序
         if (x == null && y ==null){
             // 不需要坐标查询
@@ -153,52 +232,121 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
                     .page(new Page<>(current, SystemConstants.DEFAULT_PAGE_SIZE));
             return Result.ok(page.getRecords());
         }
+        if (rankQuery != null && !shopRanker.supports(rankQuery.getSortBy())){
+            return Result.fail("不支持的排序方式");
+        }
+        if (!ShopRanker.isDistanceOnly(rankQuery) && !shopGeoIndex.isReady()){
+            // redis GEO只能按距离排序，不能应用筛选条件
+            return Result.fail("排序暂不可用");
+        }
         // 2计算分页参数
         int from = (current - 1) * SystemConstants.DEFAULT_PAGE_SIZE;
         int end = current * SystemConstants.DEFAULT_PAGE_SIZE;
-        // 3查询redis，按照距离排序，分页，结果shop_id, distance
+        // 3查询排在最前的end个店铺，截取from - end部分
+        List<ShopGeoIndex.Nearby> list = queryNearby(typeId, x, y, rankQuery, end);
+        if (list.size() <= from){
+            return Result.ok(Collections.emptyList());
+        }
+        // 4根据id查询店铺
+        return Result.ok(toShops(list.subList(from, list.size())));
+    }
+
+    @Override
+    public Result scrollShopByType(Integer typeId, String cursor, Double x, Double y, ShopRankQuery rankQuery) {
+        if (x == null || y == null){
+            return Result.fail("缺少坐标");
+        }
+        if (rankQuery != null && !shopRanker.supports(rankQuery.getSortBy())){
+            return Result.fail("不支持的排序方式");
+        }
+        if (!ShopRanker.isDistanceOnly(rankQuery) && !shopGeoIndex.isReady()){
+            // redis GEO只能按距离排序，不能应用筛选条件
+            return Result.fail("排序暂不可用");
+        }
+        int size = SystemConstants.DEFAULT_PAGE_SIZE;
+        String fingerprint = ShopGeoCursors.fingerprint(typeId, x, y, rankQuery);
+        String snapshotId = null;
+        int offset = 0;
+        // 多取一条，判断是否还有下一页
+        List<ShopGeoIndex.Nearby> page = null;
+        // 1、带游标，从快照里读取这一页
+        if (StrUtil.isNotBlank(cursor)){
+            String[] parts = shopGeoCursors.decodeCursor(cursor);
+            if (parts == null){
+                return Result.fail("游标无效");
+            }
+            if (!fingerprint.equals(parts[2])){
+                return Result.fail("查询条件与游标不一致");
+            }
+            snapshotId = parts[0];
+            offset = Integer.parseInt(parts[1]);
+            page = shopGeoCursors.slice(snapshotId, offset, size + 1);
+        }
+        // 2、第一页或快照已过期，重新查询，还有下一页时保存快照
+        if (page == null){
+            List<ShopGeoIndex.Nearby> all = queryNearby(typeId, x, y, rankQuery, shopGeoCursors.getMaxResults());
+            if (all.size() > offset + size){
+                snapshotId = shopGeoCursors.save(all);
+            }
+            page = all.subList(Math.min(offset, all.size()), Math.min(offset + size + 1, all.size()));
+        }
+        // 3、根据id查询店铺，生成下一页的游标
+        boolean hasNext = page.size() > size;
+        CursorResult r = new CursorResult();
+        r.setList(toShops(hasNext ? page.subList(0, size) : page));
+        r.setCursor(hasNext ? ShopGeoCursors.encodeCursor(snapshotId, offset + size, fingerprint) : null);
+        return Result.ok(r);
+    }
+
+    /**
+     * 半径内排在最前的limit个店铺。本地坐标索引加载完成后直接在本地查询，
+     * 有排序方式或筛选条件时在候选集上排序；索引未就绪时查询redis GEO，只能按距离升序，
+     * 调用方已经拒绝了索引未就绪时带排序方式或筛选条件的查询
+     */
+    private List<ShopGeoIndex.Nearby> queryNearby(Integer typeId, Double x, Double y, ShopRankQuery rankQuery, int limit){
+        if (shopGeoIndex.isReady()){
+            if (ShopRanker.isDistanceOnly(rankQuery)){
+                return shopGeoIndex.nearby(Long.valueOf(typeId), x, y, NEARBY_RADIUS_METERS, limit);
+            }
+            return shopRanker.rank(
+                    shopGeoIndex.candidates(Long.valueOf(typeId), x, y, NEARBY_RADIUS_METERS), rankQuery, limit);
+        }
+        // 查询redis，按照距离排序，结果shop_id, distance
         String key = SHOP_GEO_KEY + typeId;
         GeoResults<RedisGeoCommands.GeoLocation<String>> results = stringRedisTemplate.opsForGeo()
                 .search(
                         key,
                         GeoReference.fromCoordinate(x, y),
-                        new Distance(5000),
-                        RedisGeoCommands.GeoSearchCommandArgs.newGeoSearchArgs().includeCoordinates().limit(end)
+                        new Distance(NEARBY_RADIUS_METERS),
+                        RedisGeoCommands.GeoSearchCommandArgs.newGeoSearchArgs().includeDistance().sortAscending().limit(limit)
                 );
-        // 4解析id，根据id查询店铺
         if (results == null){
-            return Result.ok(Collections.emptyList());
+            return Collections.emptyList();
         }
-        List<GeoResult<RedisGeoCommands.GeoLocation<String>>> list = results.getContent();
-        if (list.size() <= from){
-            return Result.ok(Collections.emptyList());
+        List<ShopGeoIndex.Nearby> list = new ArrayList<>(results.getContent().size());
+        results.getContent().forEach(result -> list.add(new ShopGeoIndex.Nearby(
+                Long.parseLong(result.getContent().getName()), result.getDistance().getValue())));
+        return list;
+    }
+
+    /**
+     * 根据id查询店铺，走店铺缓存，并填上距离
+     */
+    private List<Shop> toShops(List<ShopGeoIndex.Nearby> list){
+        if (list.isEmpty()){
+            return Collections.emptyList();
         }
-        // 截取from - end部分
         List<Long> ids = new ArrayList<>(list.size());
-        Map<String, Distance> distanceMap = new HashMap<>(list.size());
-        list.stream().skip(from).forEach(result ->{
-            String shopIdStr = result.getContent().getName();
-            ids.add(Long.valueOf(shopIdStr));
-            Distance distance = result.getDistance();
-            distanceMap.put(shopIdStr, distance);
-        });
-        // 5根据id查询店铺
-        String idStr = StrUtil.join(",", ids);
-        List<Shop> shops = query().in("id", ids).last("ORDER BY FIELD(id," + idStr + ")").list();
+        Map<Long, Double> distanceMap = new HashMap<>(list.size() * 2);
+        for (ShopGeoIndex.Nearby nearby : list){
+            ids.add(nearby.getId());
+            distanceMap.put(nearby.getId(), nearby.getDistance());
+        }
+        List<Shop> shops = queryByIds(ids);
         for (Shop shop : shops){
-            shop.setDistance(distanceMap.get(shop.getId().toString()).getValue());
+            shop.setDistance(distanceMap.get(shop.getId()));
         }
-        return Result.ok(shops);
-    }
-
-
-    private boolean tryLock(String key){
-        Boolean flag = stringRedisTemplate.opsForValue().setIfAbsent(key, "1", Duration.ofSeconds(10));
-        return BooleanUtil.isTrue(flag);
-    }
-
-    private void unLock(String key){
-        stringRedisTemplate.delete(key);
+        return shops;
     }
 
 }
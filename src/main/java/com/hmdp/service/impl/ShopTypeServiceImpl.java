@@ -1,10 +1,30 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.util.StrUtil;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hmdp.dto.Result;
+import com.hmdp.dto.ShopTypeSnapshot;
 import com.hmdp.entity.ShopType;
 import com.hmdp.mapper.ShopTypeMapper;
 import com.hmdp.service.IShopTypeService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
+import org.springframework.util.DigestUtils;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_TYPE_VERSION_KEY;
 
 /**
  * <p>
@@ -14,7 +34,94 @@ import org.springframework.stereotype.Service;
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class ShopTypeServiceImpl extends ServiceImpl<ShopTypeMapper, ShopType> implements IShopTypeService {
 
+    /**
+     * 检查redis版本号的间隔
+     */
+    @Value("${hmdp.shop-type.refresh-interval-ms:5000}")
+    private long refreshIntervalMs;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private ObjectMapper objectMapper;
+
+    private final ScheduledExecutorService refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "shop-type-refresher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private volatile ShopTypeSnapshot snapshot;
+
+    @PostConstruct
+    private void init(){
+        refresher.scheduleWithFixedDelay(this::checkVersion, refreshIntervalMs, refreshIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    private void destroy(){
+        refresher.shutdownNow();
+    }
+
+    @Override
+    public ShopTypeSnapshot snapshot() {
+        ShopTypeSnapshot current = snapshot;
+        if (current != null) {
+            return current;
+        }
+        synchronized (this) {
+            if (snapshot == null) {
+                snapshot = load(currentVersion());
+            }
+            return snapshot;
+        }
+    }
+
+    @Override
+    public ShopTypeSnapshot bumpVersion() {
+        Long version = stringRedisTemplate.opsForValue().increment(CACHE_SHOP_TYPE_VERSION_KEY);
+        ShopTypeSnapshot loaded = load(version == null ? 0 : version);
+        snapshot = loaded;
+        return loaded;
+    }
+
+    /**
+     * 版本号变化时重新加载
+     */
+    private void checkVersion(){
+        try {
+            ShopTypeSnapshot current = snapshot;
+            long version = currentVersion();
+            if (current != null && current.getVersion() != version) {
+                snapshot = load(version);
+                log.info("店铺类型快照已刷新, version={}", version);
+            }
+        } catch (Exception e) {
+            log.error("刷新店铺类型快照失败", e);
+        }
+    }
+
+    private long currentVersion(){
+        String version = stringRedisTemplate.opsForValue().get(CACHE_SHOP_TYPE_VERSION_KEY);
+        return StrUtil.isBlank(version) ? 0 : Long.parseLong(version);
+    }
+
+    private ShopTypeSnapshot load(long version){
+        // 1、查询数据库
+        List<ShopType> types = Collections.unmodifiableList(query().orderByAsc("sort").list());
+        // 2、提前序列化响应体，计算etag
+        byte[] body;
+        try {
+            body = objectMapper.writeValueAsBytes(Result.ok(types));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("序列化店铺类型失败", e);
+        }
+        String etag = "\"" + DigestUtils.md5DigestAsHex(body) + "\"";
+        return new ShopTypeSnapshot(version, types, body, etag);
+    }
 }
@@ -7,26 +7,36 @@ import com.hmdp.mapper.VoucherOrderMapper;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherOrderService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
-import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.IIdWorker;
+import com.hmdp.utils.SeckillSoldOutCache;
+import com.hmdp.utils.SeckillStockSegments;
 import com.hmdp.utils.UserHolder;
 import lombok.extern.slf4j.Slf4j;
 import org.redisson.api.RLock;
 import org.redisson.api.RedissonClient;
 import org.springframework.aop.framework.AopContext;
-import org.springframework.core.io.ClassPathResource;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.data.domain.Range;
 import org.springframework.data.redis.connection.stream.*;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
-import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
-import java.util.Collections;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_DLQ_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_GROUP;
 
 /**
  * <p>
@@ -44,52 +54,277 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     private ISeckillVoucherService iSeckillVoucherService;
 
     @Resource
-    private RedisIdWorker redisIdWorker;
+    private IIdWorker idWorker;
 
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
-    private static final DefaultRedisScript<Long> SECKILL_SCRIPT;
+    /**
+     * 消费者线程池，每个线程是消费者组里一个独立的消费者
+     */
+    private ExecutorService seckillOrderExecutor;
 
-    static{
-        SECKILL_SCRIPT = new DefaultRedisScript<>();
-        SECKILL_SCRIPT.setLocation(new ClassPathResource("unlock.lua"));
-        SECKILL_SCRIPT.setResultType(Long.class);
-    }
+    @Lazy
+    @Resource
+    private IVoucherOrderService proxy;
 
-    private static final ExecutorService SECKILL_ORDER_EXECUTOR = Executors.newSingleThreadExecutor();
+    @Resource
+    private RedissonClient redissonClient;
 
-    private IVoucherOrderService proxy;
+    @Resource
+    private SeckillSoldOutCache seckillSoldOutCache;
+
+    @Resource
+    private SeckillStockSegments seckillStockSegments;
+
+    /**
+     * 是否开启批量消费
+     */
+    @Value("${hmdp.seckill.order.batch-enabled:true}")
+    private boolean batchEnabled;
+
+    /**
+     * 每批最多读取的消息数
+     */
+    @Value("${hmdp.seckill.order.batch-size:100}")
+    private int batchSize;
+
+    /**
+     * 凑批的最长等待时间
+     */
+    @Value("${hmdp.seckill.order.batch-linger-ms:50}")
+    private long batchLingerMs;
+
+    /**
+     * 本节点的消费者数量，<=0 时取CPU核数
+     */
+    @Value("${hmdp.seckill.order.consumers:0}")
+    private int consumers;
+
+    /**
+     * pending消息空闲多久后可以被认领
+     */
+    @Value("${hmdp.seckill.order.pending-min-idle-ms:5000}")
+    private long pendingMinIdleMs;
+
+    /**
+     * 认领pending消息的间隔
+     */
+    @Value("${hmdp.seckill.order.pending-recover-interval-ms:2000}")
+    private long pendingRecoverIntervalMs;
+
+    /**
+     * 最大投递次数，超过后转入死信队列
+     */
+    @Value("${hmdp.seckill.order.pending-max-deliveries:3}")
+    private long pendingMaxDeliveries;
 
     @PostConstruct
     private void init(){
-        SECKILL_ORDER_EXECUTOR.submit(new VoucherOrderHandler());
+        // 1、每个stream分片的消费者组不存在则创建
+        List<String> streamKeys = seckillStockSegments.streamKeys();
+        for (String streamKey : streamKeys) {
+            createGroupIfAbsent(streamKey);
+        }
+        // 2、每个线程一个消费者，轮流分到各个分片，每个分片至少一个；名字按 pid@host-序号 区分，保证多节点、多线程不重名
+        int size = Math.max(consumers > 0 ? consumers : Runtime.getRuntime().availableProcessors(), streamKeys.size());
+        String namePrefix = ManagementFactory.getRuntimeMXBean().getName();
+        AtomicInteger threadIndex = new AtomicInteger();
+        seckillOrderExecutor = Executors.newFixedThreadPool(size,
+                r -> new Thread(r, "seckill-order-" + threadIndex.getAndIncrement()));
+        for (int i = 0; i < size; i++) {
+            seckillOrderExecutor.submit(new VoucherOrderHandler(streamKeys.get(i % streamKeys.size()), namePrefix + "-" + i));
+        }
+        log.info("启动{}个秒杀订单消费者, 分片{}, 组{}", size, streamKeys, SECKILL_ORDER_GROUP);
+    }
+
+    @PreDestroy
+    private void destroy(){
+        seckillOrderExecutor.shutdownNow();
+    }
+
+    private void createGroupIfAbsent(String streamKey){
+        try {
+            stringRedisTemplate.execute((RedisCallback<String>) connection -> connection.streamCommands().xGroupCreate(
+                    streamKey.getBytes(StandardCharsets.UTF_8),
+                    SECKILL_ORDER_GROUP,
+                    ReadOffset.from("0"),
+                    true
+            ));
+        } catch (Exception e) {
+            // BUSYGROUP 说明组已经存在，其他错误（连不上redis、认证失败等）继续抛出
+            if (!isBusyGroup(e)) {
+                log.error("创建{}的消费者组{}失败", streamKey, SECKILL_ORDER_GROUP, e);
+                throw e;
+            }
+            log.debug("{}的消费者组{}已存在", streamKey, SECKILL_ORDER_GROUP);
+        }
+    }
+
+    private static boolean isBusyGroup(Throwable e){
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t.getMessage() != null && t.getMessage().contains("BUSYGROUP")) {
+                return true;
+            }
+        }
+        return false;
     }
 
     private BlockingQueue<VoucherOrder> orderTasks = new ArrayBlockingQueue<>(1024 * 1024);
 
     @Override
     public Result seckillVouchor(Long voucherId) {
-        return null;
+        // 0、本地售罄标记，已售罄直接拒绝，不再访问redis
+        if (seckillSoldOutCache.isSoldOut(voucherId)) {
+            return Result.fail("库存不足");
+        }
+        // 获取用户
+        Long userId = UserHolder.getUser().getId();
+        // 获取订单id
+        long orderId = idWorker.nextId("order");
+        // 1、执行lua脚本，热点券走分段库存
+        long result = seckillStockSegments.seckill(voucherId, userId, orderId);
+        // 2、判断结果是否为0
+        int r = (int) result;
+        if (r != 0) {
+            // 2.1 不为0 代表没有购买资格，库存不足时标记售罄并广播
+            if (r == 1) {
+                seckillSoldOutCache.markSoldOut(voucherId);
+            }
+            return Result.fail(r == 1 ? "库存不足" : "不能重复下单");
+        }
+        // 3 返回订单id
+        return Result.ok(orderId);
     }
 
     @Override
-    public void createVoucherOrder(VoucherOrder VoucherOrder) {
+    @Transactional
+    public void createVoucherOrder(VoucherOrder order) {
+        // 6、一人一单
+        Long userId = order.getUserId();
+        // 6.1 查询订单
+        int count = query().eq("user_id", userId).eq("voucher_id", order.getVoucherId()).count();
+        // 6.2 是否存在
+        if (count > 0) {
+            log.error("用户已经购买过依次了");
+            return;
+        }
+
+        boolean success = iSeckillVoucherService.update()
+                .setSql("stock = stock - 1")
+                .eq("voucher_id", order.getVoucherId())
+                .gt("stock", 0)
+                .update();
+        if (!success) {
+            log.error("订单不足！");
+            return;
+        }
+
+        save(order);
+    }
 
+    @Override
+    @Transactional
+    public int createVoucherOrderBatch(List<VoucherOrder> orders) {
+        // 1、批次内去重，同一用户同一张券只保留第一单
+        Map<String, VoucherOrder> unique = new LinkedHashMap<>(orders.size());
+        for (VoucherOrder order : orders) {
+            unique.putIfAbsent(order.getUserId() + ":" + order.getVoucherId(), order);
+        }
+        // 2、一人一单，一次查询过滤掉已经落库的订单
+        Set<Long> userIds = new HashSet<>();
+        Set<Long> voucherIds = new HashSet<>();
+        for (VoucherOrder order : unique.values()) {
+            userIds.add(order.getUserId());
+            voucherIds.add(order.getVoucherId());
+        }
+        List<VoucherOrder> exists = query()
+                .select("user_id", "voucher_id")
+                .in("user_id", userIds)
+                .in("voucher_id", voucherIds)
+                .list();
+        for (VoucherOrder order : exists) {
+            if (unique.remove(order.getUserId() + ":" + order.getVoucherId()) != null) {
+                log.error("用户{}已经购买过券{}", order.getUserId(), order.getVoucherId());
+            }
+        }
+        // 3、按券聚合扣减库存 stock = stock - n
+        Map<Long, List<VoucherOrder>> byVoucher = unique.values().stream()
+                .collect(Collectors.groupingBy(VoucherOrder::getVoucherId));
+        List<VoucherOrder> toSave = new ArrayList<>(unique.size());
+        for (Map.Entry<Long, List<VoucherOrder>> entry : byVoucher.entrySet()) {
+            Long voucherId = entry.getKey();
+            List<VoucherOrder> voucherOrders = entry.getValue();
+            int n = voucherOrders.size();
+            boolean success = iSeckillVoucherService.update()
+                    .setSql("stock = stock - " + n)
+                    .eq("voucher_id", voucherId)
+                    .ge("stock", n)
+                    .update();
+            if (success) {
+                toSave.addAll(voucherOrders);
+                continue;
+            }
+            // 3.1 库存不够整批扣减，逐单扣减，能下几单算几单
+            for (VoucherOrder order : voucherOrders) {
+                success = iSeckillVoucherService.update()
+                        .setSql("stock = stock - 1")
+                        .eq("voucher_id", voucherId)
+                        .gt("stock", 0)
+                        .update();
+                if (!success) {
+                    log.error("券{}订单不足！", voucherId);
+                    break;
+                }
+                toSave.add(order);
+            }
+        }
+        // 4、批量插入订单
+        if (!toSave.isEmpty()) {
+            saveBatch(toSave);
+        }
+        return toSave.size();
     }
 
 
     private class VoucherOrderHandler implements Runnable {
-        private String queueName = "stream.orders";
+        /**
+         * 消费者负责的stream分片
+         */
+        private final String queueName;
+
+        private final Consumer consumer;
+
+        /**
+         * 吞吐统计：上次汇报时间、区间内处理的订单数和批次数
+         */
+        private long lastReportTime = System.currentTimeMillis();
+        private long reportOrders;
+        private long reportBatches;
+
+        private long lastRecoverTime;
+
+        VoucherOrderHandler(String queueName, String consumerName) {
+            this.queueName = queueName;
+            this.consumer = Consumer.from(SECKILL_ORDER_GROUP, consumerName);
+        }
 
         @Override
         public void run() {
-            while (true) {
-
+            while (!Thread.currentThread().isInterrupted()) {
+                // 0、定期认领空闲超时的pending消息
+                if (System.currentTimeMillis() - lastRecoverTime >= pendingRecoverIntervalMs) {
+                    lastRecoverTime = System.currentTimeMillis();
+                    recoverPending();
+                }
+                if (batchEnabled) {
+                    runBatch();
+                    continue;
+                }
                 try {
                     // 1、获取消息队列中订单信息
                     List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
-                            Consumer.from("g1", "c1"),
+                            consumer,
                             StreamReadOptions.empty().count(1).block(Duration.ofSeconds(2)),
                             StreamOffset.create(queueName, ReadOffset.lastConsumed())
                     );
@@ -105,53 +340,158 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
                     // 2。2、如果成功，可以下单
                     handleVoucherOrder(order);
                     // ACK确认 SACK
-                    stringRedisTemplate.opsForStream().acknowledge(queueName, "g1", record.getId());
+                    stringRedisTemplate.opsForStream().acknowledge(queueName, SECKILL_ORDER_GROUP, record.getId());
 
                 } catch (Exception e) {
+                    // 消息留在pending-list，空闲超时后由认领流程单条重试
                     log.error("处理异常信息!", e);
-                    try {
-                        handlePendingList();
-                    } catch (InterruptedException ex) {
-                        throw new RuntimeException(ex);
-                    }
                 }
                 // 2、创建订单
             }
         }
 
-        public void handlePendingList() throws InterruptedException {
-            while (true) {
-
-                try {
-                    // 1、获取pending-list中订单信息
-                    List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
-                            Consumer.from("g1", "c1"),
-                            StreamReadOptions.empty().count(1),
-                            StreamOffset.create(queueName, ReadOffset.from("0"))
-                    );
-                    // 2、判断消息获取是否成功
-                    if (list == null || list.isEmpty()) {
-                        // 2.1、如果失败，说明pending-list没有消息，继续下一次循环
-                        break;
-                    }
-                    MapRecord<String, Object, Object> record = list.get(0);
-                    Map<Object, Object> values = record.getValue();
-                    VoucherOrder order = BeanUtil.fillBeanWithMap(values, new VoucherOrder(), true);
-
-                    // 2。2、如果成功，可以下单
-                    handleVoucherOrder(order);
-                    // ACK确认 SACK
-                    stringRedisTemplate.opsForStream().acknowledge(queueName, "g1", record.getId());
+        private void runBatch() {
+            try {
+                // 1、凑一批消息
+                List<MapRecord<String, Object, Object>> records = readBatch();
+                if (records.isEmpty()) {
+                    return;
+                }
+                // 2、解析订单，整批下单
+                List<VoucherOrder> orders = new ArrayList<>(records.size());
+                RecordId[] recordIds = new RecordId[records.size()];
+                for (int i = 0; i < records.size(); i++) {
+                    MapRecord<String, Object, Object> record = records.get(i);
+                    orders.add(BeanUtil.fillBeanWithMap(record.getValue(), new VoucherOrder(), true));
+                    recordIds[i] = record.getId();
+                }
+                int created = proxy.createVoucherOrderBatch(orders);
+                // 3、一次XACK确认整批消息
+                stringRedisTemplate.opsForStream().acknowledge(queueName, SECKILL_ORDER_GROUP, recordIds);
+                reportThroughput(records.size(), created);
+            } catch (Exception e) {
+                // 整批留在pending-list，空闲超时后由认领流程逐条重试，坏消息不会拖住好消息
+                log.error("批量处理订单异常!", e);
+            }
+        }
 
-                } catch (Exception e) {
-                    log.error("处理异常信息!", e);
-                    Thread.sleep(20);
+        /**
+         * 读取一批消息：第一条最多阻塞2秒，拿到第一条后最多再等batchLingerMs凑满batchSize
+         */
+        private List<MapRecord<String, Object, Object>> readBatch() {
+            List<MapRecord<String, Object, Object>> batch = new ArrayList<>(batchSize);
+            List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
+                    consumer,
+                    StreamReadOptions.empty().count(batchSize).block(Duration.ofSeconds(2)),
+                    StreamOffset.create(queueName, ReadOffset.lastConsumed())
+            );
+            if (list == null || list.isEmpty()) {
+                return batch;
+            }
+            batch.addAll(list);
+            long deadline = System.currentTimeMillis() + batchLingerMs;
+            while (batch.size() < batchSize) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    break;
+                }
+                list = stringRedisTemplate.opsForStream().read(
+                        consumer,
+                        StreamReadOptions.empty().count(batchSize - batch.size()).block(Duration.ofMillis(remaining)),
+                        StreamOffset.create(queueName, ReadOffset.lastConsumed())
+                );
+                if (list == null || list.isEmpty()) {
+                    break;
                 }
+                batch.addAll(list);
+            }
+            return batch;
+        }
 
+        private void reportThroughput(int records, int created) {
+            reportOrders += records;
+            reportBatches++;
+            long now = System.currentTimeMillis();
+            long elapsed = now - lastReportTime;
+            if (elapsed < 10_000) {
+                return;
             }
+            log.info("{} 批量消费: {} 条/秒, 平均每批 {} 条, 本批落库 {} 单",
+                    consumer.getName(), reportOrders * 1000 / elapsed, reportOrders / reportBatches, created);
+            lastReportTime = now;
+            reportOrders = 0;
+            reportBatches = 0;
         }
 
+        /**
+         * 认领整个消费者组里空闲超过pendingMinIdleMs的pending消息（包括已宕机消费者的），逐条重试，
+         * 投递次数超过pendingMaxDeliveries的转入死信队列
+         */
+        private void recoverPending() {
+            try {
+                // 1、XPENDING 查看组内最老的一批pending消息及其投递次数
+                PendingMessages pending = stringRedisTemplate.opsForStream()
+                        .pending(queueName, SECKILL_ORDER_GROUP, Range.unbounded(), batchSize);
+                if (pending == null || pending.isEmpty()) {
+                    return;
+                }
+                Map<RecordId, Long> deliveries = new HashMap<>(pending.size());
+                for (PendingMessage message : pending) {
+                    if (message.getElapsedTimeSinceLastDelivery().toMillis() >= pendingMinIdleMs) {
+                        deliveries.put(message.getId(), message.getTotalDeliveryCount());
+                    }
+                }
+                if (deliveries.isEmpty()) {
+                    return;
+                }
+                // 2、XCLAIM 到自己名下，只有仍然空闲超时的消息才能认领成功，多个消费者之间不会重复处理
+                RecordId[] ids = deliveries.keySet().toArray(new RecordId[0]);
+                List<ByteRecord> claimed = stringRedisTemplate.execute((RedisCallback<List<ByteRecord>>) connection ->
+                        connection.streamCommands().xClaim(
+                                queueName.getBytes(StandardCharsets.UTF_8),
+                                SECKILL_ORDER_GROUP,
+                                consumer.getName(),
+                                Duration.ofMillis(pendingMinIdleMs),
+                                ids
+                        ));
+                if (claimed == null) {
+                    return;
+                }
+                // 3、逐条处理，互不影响
+                for (ByteRecord byteRecord : claimed) {
+                    if (byteRecord == null) {
+                        continue;
+                    }
+                    MapRecord<String, Object, Object> record = stringRedisTemplate.opsForStream().deserializeRecord(byteRecord);
+                    // XCLAIM 本身也算一次投递
+                    long delivered = deliveries.getOrDefault(record.getId(), 0L) + 1;
+                    if (delivered > pendingMaxDeliveries) {
+                        moveToDeadLetter(record, delivered);
+                        continue;
+                    }
+                    try {
+                        VoucherOrder order = BeanUtil.fillBeanWithMap(record.getValue(), new VoucherOrder(), true);
+                        handleVoucherOrder(order);
+                        stringRedisTemplate.opsForStream().acknowledge(queueName, SECKILL_ORDER_GROUP, record.getId());
+                    } catch (Exception e) {
+                        log.error("订单消息{}第{}次处理失败", record.getId(), delivered, e);
+                    }
+                }
+            } catch (Exception e) {
+                log.error("认领pending消息异常!", e);
+            }
+        }
 
+        private void moveToDeadLetter(MapRecord<String, Object, Object> record, long delivered) {
+            Map<Object, Object> values = new HashMap<>(record.getValue());
+            values.put("sourceId", record.getId().getValue());
+            values.put("deliveries", String.valueOf(delivered));
+            values.put("consumer", consumer.getName());
+            values.put("stream", queueName);
+            stringRedisTemplate.opsForStream().add(SECKILL_ORDER_DLQ_KEY, values);
+            stringRedisTemplate.opsForStream().acknowledge(queueName, SECKILL_ORDER_GROUP, record.getId());
+            log.error("订单消息{}已投递{}次仍失败，转入{}", record.getId(), delivered, SECKILL_ORDER_DLQ_KEY);
+        }
 
         private void handleVoucherOrder(VoucherOrder order) {
             Long userId = order.getUserId();
@@ -171,62 +511,6 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
 
 
         }
-
-        @Resource
-        private RedissonClient redissonClient;
-//        @Override
-        public Result seckillVouchor(Long voucherId) {
-            // 获取用户
-            Long userId = UserHolder.getUser().getId();
-            // 获取订单id
-            long orderId = redisIdWorker.nextId("order");
-            // 1、执行lua脚本
-            Long result = stringRedisTemplate.execute(
-                    SECKILL_SCRIPT,
-                    Collections.emptyList(),
-                    voucherId.toString(),
-                    userId.toString(),
-                    String.valueOf(orderId)
-
-            );
-
-            // 2、判断结果是否为0
-            int r = result.intValue();
-            if (result != 0) {
-                // 2.1 不为0 代表没有购买资格
-                return Result.fail(r == 1 ? "库存不足" : "不能重复下单");
-            }
-            // 3 返回订单id
-            return Result.ok();
-
-        }
-
-        @Transactional
-//        @Override
-        public void createVoucherOrder(VoucherOrder order) {
-            // 6、一人一单
-            Long userId = order.getUserId();
-            // 6.1 查询订单
-            int count = query().eq("user_id", userId).eq("voucher_id", order).count();
-            // 6.2 是否存在
-            if (count > 0) {
-                log.error("用户已经购买过依次了");
-                return;
-            }
-
-            boolean success = iSeckillVoucherService.update()
-                    .setSql("stock = stock - 1")
-                    .eq("voucher_id", order)
-                    .gt("stock", 0)
-                    .update();
-            if (!success) {
-                log.error("订单不足！");
-                return;
-            }
-
-            save(order);
-
-        }
     }
 
 
@@ -1,19 +1,33 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.util.StrUtil;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.ShopVouchers;
 import com.hmdp.entity.Voucher;
 import com.hmdp.mapper.VoucherMapper;
 import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherService;
-import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CacheInvalidator;
+import com.hmdp.utils.SeckillSoldOutCache;
+import com.hmdp.utils.SeckillStockSegments;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_VOUCHER_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_VOUCHER_TTL;
 
 /**
  * <p>
@@ -32,14 +46,98 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
     @Resource
     private StringRedisTemplate redisTemplate;
 
+    @Resource
+    private SeckillSoldOutCache seckillSoldOutCache;
+
+    @Resource
+    private SeckillStockSegments seckillStockSegments;
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private CacheInvalidator cacheInvalidator;
+
     @Override
     public Result queryVoucherOfShop(Long shopId) {
-        // 查询优惠券信息
-        List<Voucher> vouchers = getBaseMapper().queryVoucherOfShop(shopId);
+        // 1、查询缓存的优惠券信息，未命中再查数据库
+        ShopVouchers cached = cacheClient.queryWithPassThrough(
+                CACHE_SHOP_VOUCHER_KEY, shopId, ShopVouchers.class, this::loadVouchers,
+                CACHE_SHOP_VOUCHER_TTL, TimeUnit.MINUTES);
+        if (cached == null || cached.getVouchers() == null || cached.getVouchers().isEmpty()) {
+            return Result.ok(Collections.emptyList());
+        }
+        // 2、缓存对象可能是热点key的本地副本，复制后再覆盖库存
+        List<Voucher> vouchers = new ArrayList<>(cached.getVouchers().size());
+        for (Voucher voucher : cached.getVouchers()) {
+            vouchers.add(BeanUtil.copyProperties(voucher, Voucher.class));
+        }
+        // 3、秒杀券的库存用redis里的实时库存
+        overlayStock(vouchers);
         // 返回结果
         return Result.ok(vouchers);
     }
 
+    private ShopVouchers loadVouchers(Long shopId) {
+        ShopVouchers shopVouchers = new ShopVouchers();
+        shopVouchers.setVouchers(getBaseMapper().queryVoucherOfShop(shopId));
+        return shopVouchers;
+    }
+
+    /**
+     * 一次MGET读取所有秒杀券（包括所有分段）的库存，redis里没有库存的券保留数据库的值
+     */
+    private void overlayStock(List<Voucher> vouchers) {
+        List<Voucher> seckillVouchers = new ArrayList<>();
+        List<List<String>> stockKeys = new ArrayList<>();
+        List<String> keys = new ArrayList<>();
+        for (Voucher voucher : vouchers) {
+            // 左连接tb_seckill_voucher，有库存的才是秒杀券
+            if (voucher.getStock() == null) {
+                continue;
+            }
+            List<String> voucherKeys = seckillStockSegments.stockKeys(voucher.getId());
+            seckillVouchers.add(voucher);
+            stockKeys.add(voucherKeys);
+            keys.addAll(voucherKeys);
+        }
+        if (keys.isEmpty()) {
+            return;
+        }
+        List<String> values = redisTemplate.opsForValue().multiGet(keys);
+        if (values == null) {
+            return;
+        }
+        int index = 0;
+        for (int i = 0; i < seckillVouchers.size(); i++) {
+            int stock = 0;
+            boolean complete = true;
+            for (int j = 0; j < stockKeys.get(i).size(); j++) {
+                String value = values.get(index++);
+                if (StrUtil.isBlank(value)) {
+                    complete = false;
+                } else {
+                    stock += Integer.parseInt(value);
+                }
+            }
+            if (complete) {
+                seckillVouchers.get(i).setStock(Math.max(stock, 0));
+            }
+        }
+    }
+
+    /**
+     * 新增优惠券后失效店铺的优惠券缓存，在事务中则提交后失效
+     */
+    @Override
+    public boolean save(Voucher voucher) {
+        boolean success = super.save(voucher);
+        if (success && voucher.getShopId() != null) {
+            cacheInvalidator.invalidate(CACHE_SHOP_VOUCHER_KEY + voucher.getShopId());
+        }
+        return success;
+    }
+
     @Override
     @Transactional
     public void addSeckillVoucher(Voucher voucher) {
@@ -53,8 +151,46 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
         seckillVoucher.setEndTime(voucher.getEndTime());
         seckillVoucherService.save(seckillVoucher);
 
-        // 保存秒杀库存到redis中
-        redisTemplate.opsForValue().set(RedisConstants.SECKILL_STOCK_KEY + voucher.getId(), voucher.getStock().toString());
+        // 事务提交后保存秒杀库存到redis中，回滚时redis里不会留下数据库没有的库存
+        afterCommit(() -> seckillStockSegments.initStock(voucher.getId(), voucher.getStock()));
+        seckillSoldOutCache.clear(voucher.getId());
+    }
+
+    @Override
+    @Transactional
+    public Result addSeckillStock(Long voucherId, Integer stock) {
+        if (stock == null || stock <= 0) {
+            return Result.fail("补充库存必须大于0");
+        }
+        // 1、补充数据库库存
+        boolean success = seckillVoucherService.update()
+                .setSql("stock = stock + " + stock)
+                .eq("voucher_id", voucherId)
+                .update();
+        if (!success) {
+            return Result.fail("秒杀券不存在");
+        }
+        // 2、事务提交后补充redis库存，回滚时不补
+        afterCommit(() -> seckillStockSegments.addStock(voucherId, stock));
+        // 3、提交后清除所有节点的售罄标记，注册在补库存之后，先有库存再放行
+        seckillSoldOutCache.clear(voucherId);
+        return Result.ok();
+    }
+
+    /**
+     * 在事务中则提交后执行，否则立即执行
+     */
+    private void afterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+            return;
+        }
+        action.run();
     }
 
 
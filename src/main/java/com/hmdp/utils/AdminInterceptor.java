@@ -0,0 +1,37 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.UserDTO;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.Set;
+
+/**
+ * 运维接口只允许配置的管理员访问，在登录拦截器之后执行
+ */
+public class AdminInterceptor implements HandlerInterceptor {
+
+    private final Set<Long> adminIds;
+
+    public AdminInterceptor(Set<Long> adminIds){
+        this.adminIds = adminIds;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        // 1、未登录
+        UserDTO user = UserHolder.getUser();
+        if (user == null){
+            response.setStatus(401);
+            return false;
+        }
+        // 2、不是管理员
+        if (!adminIds.contains(user.getId())){
+            response.setStatus(403);
+            return false;
+        }
+        // 3、放行
+        return true;
+    }
+}
@@ -0,0 +1,395 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Blog;
+import com.hmdp.entity.Shop;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 紧凑二进制格式：1字节魔数 + 1字节版本 + 1字节标志 + 按字段顺序写入的字段值。
+ * 整数用变长编码，null和值共用一个长度/标记，时间存epoch毫秒；超过阈值的值用deflate压缩。
+ * 没有注册schema的类型、以及二进制格式表示不了的值退回JSON
+ */
+public class BinaryCacheCodec implements ICacheCodec {
+
+    /**
+     * UTF-8里不会出现0xFE，和JSON格式可以按首字节区分
+     */
+    public static final byte MAGIC = (byte) 0xFE;
+    /**
+     * 字段顺序变化时升级版本号，新字段只追加在末尾，旧版本的值仍然可以读取。
+     * 2：Shop末尾追加version
+     */
+    public static final byte VERSION = 2;
+    private static final int HEADER_LENGTH = 3;
+    private static final int FLAG_COMPRESSED = 1;
+
+    private final int compressThreshold;
+    private final ICacheCodec fallback;
+    private final Map<Class<?>, Schema<?>> schemas = new ConcurrentHashMap<>();
+
+    public BinaryCacheCodec(int compressThreshold, ICacheCodec fallback){
+        this.compressThreshold = compressThreshold;
+        this.fallback = fallback;
+        register(Shop.class, SHOP_SCHEMA);
+        register(Blog.class, BLOG_SCHEMA);
+    }
+
+    public <T> void register(Class<T> type, Schema<T> schema){
+        schemas.put(type, schema);
+    }
+
+    public static boolean isBinary(byte[] bytes){
+        return bytes.length >= HEADER_LENGTH && bytes[0] == MAGIC;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public byte[] encode(Object value) {
+        Schema<Object> schema = (Schema<Object>) schemas.get(value.getClass());
+        if (schema == null) {
+            return fallback.encode(value);
+        }
+        // 1、按字段顺序写入
+        Output out = new Output();
+        try {
+            schema.write(value, out);
+        } catch (UnsupportedValueException e) {
+            return fallback.encode(value);
+        }
+        byte[] body = out.toByteArray();
+        int flags = 0;
+        // 2、超过阈值压缩，压缩后更大则保留原文
+        if (body.length > compressThreshold) {
+            byte[] compressed = deflate(body);
+            if (compressed.length < body.length) {
+                body = compressed;
+                flags |= FLAG_COMPRESSED;
+            }
+        }
+        // 3、写入头部
+        byte[] result = new byte[HEADER_LENGTH + body.length];
+        result[0] = MAGIC;
+        result[1] = VERSION;
+        result[2] = (byte) flags;
+        System.arraycopy(body, 0, result, HEADER_LENGTH, body.length);
+        return result;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T decode(byte[] bytes, Class<T> type) {
+        if (!isBinary(bytes)) {
+            return fallback.decode(bytes, type);
+        }
+        byte version = bytes[1];
+        if (version < 1 || version > VERSION) {
+            throw new IllegalArgumentException("不支持的缓存编码版本: " + version);
+        }
+        Schema<T> schema = (Schema<T>) schemas.get(type);
+        if (schema == null) {
+            throw new IllegalArgumentException("没有注册缓存编码: " + type.getName());
+        }
+        Input in = (bytes[2] & FLAG_COMPRESSED) != 0
+                ? new Input(inflate(bytes), 0, version)
+                : new Input(bytes, HEADER_LENGTH, version);
+        return schema.read(in);
+    }
+
+    /**
+     * 压缩体：原始长度(变长) + deflate数据
+     */
+    private static byte[] deflate(byte[] body){
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(body);
+            deflater.finish();
+            Output out = new Output();
+            out.writeVarLong(body.length);
+            byte[] buffer = new byte[body.length];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buffer);
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] bytes){
+        Input header = new Input(bytes, HEADER_LENGTH, bytes[1]);
+        int length = (int) header.readVarLong();
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(bytes, header.position, bytes.length - header.position);
+            byte[] body = new byte[length];
+            int n = inflater.inflate(body);
+            if (n != length) {
+                throw new IllegalArgumentException("缓存值解压长度不一致");
+            }
+            return body;
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("缓存值解压失败", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * 一个类型的字段读写顺序，读取时按 Input.getVersion 判断旧版本没有的字段
+     */
+    public interface Schema<T> {
+
+        void write(T value, Output out);
+
+        T read(Input in);
+    }
+
+    private static final Schema<Shop> SHOP_SCHEMA = new Schema<Shop>() {
+        @Override
+        public void write(Shop shop, Output out) {
+            out.writeLong(shop.getId());
+            out.writeString(shop.getName());
+            out.writeLong(shop.getTypeId());
+            out.writeString(shop.getImages());
+            out.writeString(shop.getArea());
+            out.writeString(shop.getAddress());
+            out.writeDouble(shop.getX());
+            out.writeDouble(shop.getY());
+            out.writeLong(shop.getAvgPrice());
+            out.writeInt(shop.getSold());
+            out.writeInt(shop.getComments());
+            out.writeInt(shop.getScore());
+            out.writeString(shop.getOpenHours());
+            out.writeTime(shop.getCreateTime());
+            out.writeTime(shop.getUpdateTime());
+            out.writeLong(shop.getVersion());
+        }
+
+        @Override
+        public Shop read(Input in) {
+            Shop shop = new Shop()
+                    .setId(in.readLong())
+                    .setName(in.readString())
+                    .setTypeId(in.readLong())
+                    .setImages(in.readString())
+                    .setArea(in.readString())
+                    .setAddress(in.readString())
+                    .setX(in.readDouble())
+                    .setY(in.readDouble())
+                    .setAvgPrice(in.readLong())
+                    .setSold(in.readInt())
+                    .setComments(in.readInt())
+                    .setScore(in.readInt())
+                    .setOpenHours(in.readString())
+                    .setCreateTime(in.readTime())
+                    .setUpdateTime(in.readTime());
+            if (in.getVersion() >= 2) {
+                shop.setVersion(in.readLong());
+            }
+            return shop;
+        }
+    };
+
+    /**
+     * 只写表字段，作者信息和点赞状态每次请求单独查询
+     */
+    private static final Schema<Blog> BLOG_SCHEMA = new Schema<Blog>() {
+        @Override
+        public void write(Blog blog, Output out) {
+            out.writeLong(blog.getId());
+            out.writeLong(blog.getShopId());
+            out.writeLong(blog.getUserId());
+            out.writeString(blog.getTitle());
+            out.writeString(blog.getImages());
+            out.writeString(blog.getContent());
+            out.writeInt(blog.getLiked());
+            out.writeInt(blog.getComments());
+            out.writeTime(blog.getCreateTime());
+            out.writeTime(blog.getUpdateTime());
+        }
+
+        @Override
+        public Blog read(Input in) {
+            return new Blog()
+                    .setId(in.readLong())
+                    .setShopId(in.readLong())
+                    .setUserId(in.readLong())
+                    .setTitle(in.readString())
+                    .setImages(in.readString())
+                    .setContent(in.readString())
+                    .setLiked(in.readInt())
+                    .setComments(in.readInt())
+                    .setCreateTime(in.readTime())
+                    .setUpdateTime(in.readTime());
+        }
+    };
+
+    /**
+     * 可空字段统一编码：0表示null，否则写 zigzag(值)+1 或 长度+1
+     */
+    public static final class Output {
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(256);
+
+        public void writeLong(Long value){
+            if (value != null && value == Long.MIN_VALUE) {
+                // zigzag后是全1，+1溢出成0，和null冲突
+                throw new UnsupportedValueException();
+            }
+            writeVarLong(value == null ? 0 : zigzag(value) + 1);
+        }
+
+        public void writeInt(Integer value){
+            writeLong(value == null ? null : value.longValue());
+        }
+
+        public void writeDouble(Double value){
+            if (value == null) {
+                buffer.write(0);
+                return;
+            }
+            buffer.write(1);
+            long bits = Double.doubleToRawLongBits(value);
+            for (int i = 0; i < 8; i++) {
+                buffer.write((int) (bits >>> (i << 3)));
+            }
+        }
+
+        public void writeString(String value){
+            if (value == null) {
+                writeVarLong(0);
+                return;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(bytes.length + 1L);
+            buffer.write(bytes, 0, bytes.length);
+        }
+
+        public void writeTime(LocalDateTime value){
+            writeLong(value == null ? null : value.toInstant(ZoneOffset.UTC).toEpochMilli());
+        }
+
+        private void writeVarLong(long value){
+            while ((value & ~0x7FL) != 0) {
+                buffer.write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            buffer.write((int) value);
+        }
+
+        private void write(byte[] bytes, int offset, int length){
+            buffer.write(bytes, offset, length);
+        }
+
+        private byte[] toByteArray(){
+            return buffer.toByteArray();
+        }
+
+        private static long zigzag(long value){
+            return (value << 1) ^ (value >> 63);
+        }
+    }
+
+    /**
+     * 二进制格式表示不了的值，整个对象退回JSON
+     */
+    private static final class UnsupportedValueException extends RuntimeException {
+
+        private UnsupportedValueException(){
+            super(null, null, false, false);
+        }
+    }
+
+    public static final class Input {
+        private final byte[] bytes;
+        private final int version;
+        private int position;
+
+        private Input(byte[] bytes, int position, int version){
+            this.bytes = bytes;
+            this.position = position;
+            this.version = version;
+        }
+
+        /**
+         * 写入这个值时的格式版本
+         */
+        public int getVersion(){
+            return version;
+        }
+
+        public Long readLong(){
+            long raw = readVarLong();
+            if (raw == 0) {
+                return null;
+            }
+            long value = raw - 1;
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        public Integer readInt(){
+            Long value = readLong();
+            return value == null ? null : value.intValue();
+        }
+
+        public Double readDouble(){
+            ensure(1);
+            if (bytes[position++] == 0) {
+                return null;
+            }
+            ensure(8);
+            long bits = 0;
+            for (int i = 0; i < 8; i++) {
+                bits |= (bytes[position++] & 0xFFL) << (i << 3);
+            }
+            return Double.longBitsToDouble(bits);
+        }
+
+        public String readString(){
+            long length = readVarLong();
+            if (length == 0) {
+                return null;
+            }
+            ensure(length - 1);
+            String value = new String(bytes, position, (int) length - 1, StandardCharsets.UTF_8);
+            position += (int) length - 1;
+            return value;
+        }
+
+        public LocalDateTime readTime(){
+            Long millis = readLong();
+            return millis == null ? null : LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneOffset.UTC);
+        }
+
+        /**
+         * 剩余字节不够length个时按截断处理
+         */
+        private void ensure(long length){
+            if (length < 0 || length > bytes.length - position) {
+                throw new IllegalArgumentException("缓存值被截断");
+            }
+        }
+
+        private long readVarLong(){
+            long value = 0;
+            for (int shift = 0; ; shift += 7) {
+                ensure(1);
+                byte b = bytes[position++];
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.hmdp.mapper.BlogMapper;
+import com.hmdp.mapper.ShopMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.BLOOM_ADD_CHANNEL;
+import static com.hmdp.utils.RedisConstants.BLOOM_KEY;
+
+/**
+ * 店铺、笔记id的布隆过滤器，防止不存在的id穿透到redis和mysql。
+ * 启动时按主键分批扫描id构建，构建完成前放行所有请求；新增数据时写入过滤器。
+ * local模式下pub/sub断线会漏掉其他节点的新增，定时重建一份新的过滤器替换旧的
+ */
+@Slf4j
+@Component
+public class BloomFilters implements MessageListener {
+
+    public static final String SHOP = "shop";
+    public static final String BLOG = "blog";
+
+    private static final int SCAN_BATCH_SIZE = 1000;
+
+    @Value("${hmdp.bloom.enabled:true}")
+    private boolean enabled;
+
+    /**
+     * local：每个节点一份，新增通过pub/sub同步；redis：所有节点共享redis bitmap
+     */
+    @Value("${hmdp.bloom.type:local}")
+    private String type;
+
+    @Value("${hmdp.bloom.fpp:0.01}")
+    private double fpp;
+
+    @Value("${hmdp.bloom.expected-insertions:1000000}")
+    private long expectedInsertions;
+
+    /**
+     * local模式定时重建的间隔，0表示不重建
+     */
+    @Value("${hmdp.bloom.rebuild-interval-minutes:30}")
+    private long rebuildMinutes;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    @Resource
+    private ShopMapper shopMapper;
+
+    @Resource
+    private BlogMapper blogMapper;
+
+    private final Map<String, IBloomFilter> filters = new ConcurrentHashMap<>();
+
+    /**
+     * 正在重建的过滤器，重建期间的新增同时写入，替换时不会丢
+     */
+    private final Map<String, IBloomFilter> rebuilding = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService builder = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "bloom-filter-build");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * 构建完成的过滤器
+     */
+    private final Map<String, Boolean> ready = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    private void init(){
+        if (!enabled) {
+            return;
+        }
+        if (isLocal()) {
+            redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(BLOOM_ADD_CHANNEL));
+        }
+        filters.put(SHOP, newFilter(SHOP));
+        filters.put(BLOG, newFilter(BLOG));
+        // 后台构建，不阻塞启动
+        builder.execute(() -> {
+            build(SHOP, shopMapper, filters.get(SHOP));
+            build(BLOG, blogMapper, filters.get(BLOG));
+        });
+        if (isLocal() && rebuildMinutes > 0) {
+            builder.scheduleWithFixedDelay(() -> {
+                rebuild(SHOP, shopMapper);
+                rebuild(BLOG, blogMapper);
+            }, rebuildMinutes, rebuildMinutes, TimeUnit.MINUTES);
+        }
+    }
+
+    @PreDestroy
+    private void destroy(){
+        builder.shutdownNow();
+    }
+
+    /**
+     * 可能存在返回true；未开启或还没构建完成时一律放行
+     */
+    public boolean mightContain(String name, Long id){
+        if (!enabled || id == null || !ready.containsKey(name)) {
+            return true;
+        }
+        return filters.get(name).mightContain(id);
+    }
+
+    public void put(String name, Long id){
+        if (!enabled || id == null) {
+            return;
+        }
+        filters.get(name).put(id);
+        IBloomFilter fresh = rebuilding.get(name);
+        if (fresh != null) {
+            fresh.put(id);
+        }
+        if (isLocal()) {
+            // 通知其他节点
+            stringRedisTemplate.convertAndSend(BLOOM_ADD_CHANNEL, name + ":" + id);
+        }
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        int split = body.indexOf(':');
+        String name = split > 0 ? body.substring(0, split) : null;
+        IBloomFilter filter = name == null ? null : filters.get(name);
+        if (filter == null) {
+            return;
+        }
+        try {
+            long id = Long.parseLong(body.substring(split + 1));
+            filter.put(id);
+            IBloomFilter fresh = rebuilding.get(name);
+            if (fresh != null) {
+                fresh.put(id);
+            }
+        } catch (NumberFormatException e) {
+            log.error("无法解析布隆过滤器广播消息: {}", body);
+        }
+    }
+
+    private boolean isLocal(){
+        return !"redis".equalsIgnoreCase(type);
+    }
+
+    private IBloomFilter newFilter(String name){
+        return isLocal()
+                ? new LocalBloomFilter(expectedInsertions, fpp)
+                : new RedisBloomFilter(stringRedisTemplate, BLOOM_KEY + name + ":", expectedInsertions, fpp);
+    }
+
+    /**
+     * 扫描到一个新的过滤器里，构建完成后替换旧的；期间的新增同时写入新旧两个过滤器
+     */
+    private <T> void rebuild(String name, BaseMapper<T> mapper){
+        IBloomFilter fresh = newFilter(name);
+        rebuilding.put(name, fresh);
+        try {
+            if (build(name, mapper, fresh)) {
+                filters.put(name, fresh);
+            }
+        } finally {
+            rebuilding.remove(name);
+        }
+    }
+
+    /**
+     * 按主键顺序分批扫描id写入过滤器
+     * @return 是否构建成功
+     */
+    private <T> boolean build(String name, BaseMapper<T> mapper, IBloomFilter filter){
+        try {
+            long begin = System.currentTimeMillis();
+            long lastId = 0;
+            long count = 0;
+            while (true) {
+                List<Object> ids = mapper.selectObjs(new QueryWrapper<T>()
+                        .select("id")
+                        .gt("id", lastId)
+                        .orderByAsc("id")
+                        .last("LIMIT " + SCAN_BATCH_SIZE));
+                if (ids == null || ids.isEmpty()) {
+                    break;
+                }
+                long[] batch = new long[ids.size()];
+                for (int i = 0; i < batch.length; i++) {
+                    batch[i] = ((Number) ids.get(i)).longValue();
+                }
+                if (filter instanceof RedisBloomFilter) {
+                    ((RedisBloomFilter) filter).putAll(batch);
+                } else {
+                    for (long id : batch) {
+                        filter.put(id);
+                    }
+                }
+                count += batch.length;
+                lastId = batch[batch.length - 1];
+                if (batch.length < SCAN_BATCH_SIZE) {
+                    break;
+                }
+            }
+            ready.put(name, true);
+            log.info("布隆过滤器[{}]构建完成: 类型={}, 元素={}, 位数={}, 哈希函数={}, 内存={}KB, 误判率={}, 耗时={}ms",
+                    name, type, count, filter.bitSize(), filter.hashFunctions(), filter.bitSize() / 8 / 1024,
+                    fpp, System.currentTimeMillis() - begin);
+            return true;
+        } catch (Exception e) {
+            log.error("布隆过滤器[{}]构建失败，{}", name, ready.containsKey(name) ? "继续使用旧的过滤器" : "暂不拦截", e);
+            return false;
+        }
+    }
+}
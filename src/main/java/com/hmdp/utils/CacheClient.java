@@ -1,33 +1,494 @@
 package com.hmdp.utils;
 
-import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONUtil;
+import cn.hutool.core.util.BooleanUtil;
 import lombok.extern.slf4j.Slf4j;
-import net.sf.jsqlparser.statement.select.KSQLWindow;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.data.redis.serializer.GenericToStringSerializer;
+import org.springframework.data.redis.serializer.RedisSerializer;
 import org.springframework.stereotype.Component;
 
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import static com.hmdp.utils.RedisConstants.CACHE_NULL_TTL;
 
 @Slf4j
 @Component
 public class CacheClient {
     private final StringRedisTemplate stringRedisTemplate;
+    private final CacheCodecs cacheCodecs;
+
+    /**
+     * 带版本写入：缓存里的版本（包括墓碑）更新时放弃写入，防止慢请求用旧数据覆盖新数据
+     */
+    private static final DefaultRedisScript<Long> VERSIONED_SET_SCRIPT;
+    private static final byte[] VERSIONED_SET_SCRIPT_BYTES;
+
+    static {
+        VERSIONED_SET_SCRIPT = new DefaultRedisScript<>();
+        VERSIONED_SET_SCRIPT.setLocation(new ClassPathResource("cache_set_versioned.lua"));
+        VERSIONED_SET_SCRIPT.setResultType(Long.class);
+        VERSIONED_SET_SCRIPT_BYTES = VERSIONED_SET_SCRIPT.getScriptAsString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 各类型取版本的方法，一般是行的version列，每次更新加1；没有注册的类型直接覆盖写入
+     */
+    private final Map<Class<?>, Function<Object, Long>> versions = new ConcurrentHashMap<>();
+
+    /**
+     * 逻辑过期的缓存重建线程池，有界队列，满了就放弃本次重建，继续返回旧数据
+     */
+    private static final ExecutorService CACHE_REBUILD_EXECUTOR = new ThreadPoolExecutor(
+            10, 10, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(1000),
+            r -> new Thread(r, "cache-rebuild"),
+            new ThreadPoolExecutor.AbortPolicy()
+    );
+
+    /**
+     * 本节点正在重建的key，保证一个key同时只提交一个重建任务
+     */
+    private final Set<String> rebuilding = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 同一个key的并发未命中在本节点合并成一次加载，redis锁只决定哪个节点重建
+     */
+    private final SingleFlight singleFlight = new SingleFlight();
+
+    @Value("${hmdp.cache.single-flight-timeout-ms:3000}")
+    private long singleFlightTimeoutMs;
+
+    /**
+     * 过期时间随机增加的比例，批量写入的key不会在同一时刻过期
+     */
+    @Value("${hmdp.cache.ttl-jitter:0.1}")
+    private double ttlJitter;
+
+    /**
+     * 提前刷新（XFetch）：命中时若 -delta*beta*ln(random) >= 剩余ttl 则后台重建，
+     * 越接近过期概率越大，delta是重建耗时，beta越大刷新越早
+     */
+    @Value("${hmdp.cache.early-refresh.enabled:true}")
+    private boolean earlyRefreshEnabled;
+
+    @Value("${hmdp.cache.early-refresh.beta:1.0}")
+    private double earlyRefreshBeta;
+
+    /**
+     * 还没有统计到重建耗时的key前缀，按这个值估算
+     */
+    private static final long DEFAULT_REBUILD_COST_MS = 100;
 
-    public CacheClient(StringRedisTemplate stringRedisTemplate){
+    /**
+     * 每个key前缀查询数据库的耗时，毫秒，指数平均
+     */
+    private final Map<String, Long> rebuildCost = new ConcurrentHashMap<>();
+
+    public CacheClient(StringRedisTemplate stringRedisTemplate, CacheCodecs cacheCodecs){
         this.stringRedisTemplate = stringRedisTemplate;
+        this.cacheCodecs = cacheCodecs;
+    }
+
+    /**
+     * 注册类型的版本，之后该类型的缓存写入带上版本并比较版本
+     */
+    @SuppressWarnings("unchecked")
+    public <R> void registerVersion(Class<R> type, Function<R, Long> version){
+        versions.put(type, (Function<Object, Long>) version);
+    }
+
+    private Long versionOf(Object value){
+        Function<Object, Long> version = versions.get(value.getClass());
+        return version == null ? null : version.apply(value);
+    }
+
+    public void set(String key, Object value, Long time, TimeUnit unit){
+        long ttlMillis = jitter(unit.toMillis(time));
+        Long version = versionOf(value);
+        if (version != null) {
+            stringRedisTemplate.execute(
+                    VERSIONED_SET_SCRIPT,
+                    RedisSerializer.byteArray(),
+                    new GenericToStringSerializer<>(Long.class),
+                    Collections.singletonList(key),
+                    String.valueOf(version).getBytes(StandardCharsets.US_ASCII),
+                    cacheCodecs.encodeVersioned(value, version),
+                    String.valueOf(ttlMillis).getBytes(StandardCharsets.US_ASCII)
+            );
+            return;
+        }
+        byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+        byte[] rawValue = cacheCodecs.encode(value);
+        stringRedisTemplate.execute((RedisCallback<Boolean>) connection -> connection.set(
+                rawKey, rawValue, Expiration.milliseconds(ttlMillis), RedisStringCommands.SetOption.upsert()));
+    }
+
+    /**
+     * 一次pipeline批量写入，每个key单独加随机过期时间
+     */
+    public void setBatch(Map<String, ?> values, Long time, TimeUnit unit){
+        setBatch(values, Collections.emptyList(), unit.toMillis(time));
+    }
+
+    /**
+     * 一次pipeline写入值和空值
+     */
+    private void setBatch(Map<String, ?> values, Collection<String> nullKeys, long ttlMillis){
+        byte[] empty = new byte[0];
+        Expiration nullExpiration = Expiration.from(CACHE_NULL_TTL, TimeUnit.MINUTES);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            values.forEach((key, value) -> {
+                byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+                long ttl = jitter(ttlMillis);
+                Long version = versionOf(value);
+                if (version == null) {
+                    connection.set(rawKey, cacheCodecs.encode(value),
+                            Expiration.milliseconds(ttl), RedisStringCommands.SetOption.upsert());
+                    return;
+                }
+                connection.eval(VERSIONED_SET_SCRIPT_BYTES, ReturnType.INTEGER, 1, rawKey,
+                        String.valueOf(version).getBytes(StandardCharsets.US_ASCII),
+                        cacheCodecs.encodeVersioned(value, version),
+                        String.valueOf(ttl).getBytes(StandardCharsets.US_ASCII));
+            });
+            for (String key : nullKeys) {
+                connection.set(key.getBytes(StandardCharsets.UTF_8), empty, nullExpiration, RedisStringCommands.SetOption.upsert());
+            }
+            return null;
+        });
+    }
+
+    public void setWithLogicalExpire(String key, Object value, Long time, TimeUnit unit){
+        byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+        byte[] rawValue = cacheCodecs.encodeWithLogicalExpire(
+                value, LocalDateTime.now().plus(jitter(unit.toMillis(time)), ChronoUnit.MILLIS));
+        stringRedisTemplate.execute((RedisCallback<Boolean>) connection -> connection.set(rawKey, rawValue));
     }
 
-    public void set(String key, Object value, Long time){
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(value), Duration.ofMinutes(time));
+    /**
+     * 读取原始字节并去掉版本头，空数组表示缓存的空值，墓碑按未命中返回null
+     */
+    private byte[] getRaw(String key){
+        byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+        return cacheCodecs.stripVersion(
+                stringRedisTemplate.execute((RedisCallback<byte[]>) connection -> connection.get(rawKey)));
     }
 
-    public void setWithLogicalExpire(String key, Object value, Long time){
-        RedisData redisData = new RedisData();
-        redisData.setData(value);
-        redisData.setExpireTime(LocalDateTime.now().plusSeconds(time));
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(redisData));
+    /**
+     * 开启提前刷新时，同一次pipeline读取值和剩余ttl
+     */
+    private CacheEntry getEntry(String key){
+        if (!earlyRefreshEnabled) {
+            return new CacheEntry(getRaw(key), -1);
+        }
+        byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            connection.get(rawKey);
+            connection.pTtl(rawKey);
+            return null;
+        }, null);
+        Long ttl = (Long) results.get(1);
+        return new CacheEntry(cacheCodecs.stripVersion((byte[]) results.get(0)), ttl == null ? -1 : ttl);
+    }
+
+    private long jitter(long ttlMillis){
+        if (ttlJitter <= 0) {
+            return ttlMillis;
+        }
+        return ttlMillis + (long) (ttlMillis * ttlJitter * ThreadLocalRandom.current().nextDouble());
+    }
+
+    /**
+     * XFetch：剩余ttl越短、重建越慢，越可能提前刷新
+     */
+    private boolean shouldRefreshEarly(String keyPrefix, long ttlMillis){
+        if (!earlyRefreshEnabled || ttlMillis <= 0) {
+            return false;
+        }
+        long delta = rebuildCost.getOrDefault(keyPrefix, DEFAULT_REBUILD_COST_MS);
+        return -delta * earlyRefreshBeta * Math.log(ThreadLocalRandom.current().nextDouble()) >= ttlMillis;
+    }
+
+    /**
+     * 查询数据库并记录耗时
+     */
+    private <R, ID> R load(String keyPrefix, ID id, Function<ID, R> dbFallback){
+        long begin = System.nanoTime();
+        try {
+            return dbFallback.apply(id);
+        } finally {
+            long cost = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin);
+            rebuildCost.merge(keyPrefix, cost, (old, current) -> (old * 4 + current) / 5);
+        }
+    }
+
+    /**
+     * 缓存空值解决缓存穿透
+     */
+    public <R, ID> R queryWithPassThrough(
+            String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit){
+        String key = keyPrefix + id;
+        // 1、从redis查询缓存
+        CacheEntry entry = getEntry(key);
+        byte[] raw = entry.raw;
+        // 2、存在，直接返回，快过期的key按概率提前后台刷新
+        if (raw != null && raw.length > 0) {
+            if (shouldRefreshEarly(keyPrefix, entry.ttlMillis)) {
+                rebuildAsync(keyPrefix, id, dbFallback, r -> this.set(key, r, time, unit));
+            }
+            return cacheCodecs.decode(raw, type);
+        }
+        // 3、命中空值
+        if (raw != null) {
+            return null;
+        }
+        // 4、不存在，本节点只放一个线程查询数据库
+        return singleFlight.execute(key, () -> {
+            R r = load(keyPrefix, id, dbFallback);
+            // 5、数据库也不存在，写入空值
+            if (r == null) {
+                stringRedisTemplate.opsForValue().set(key, "", Duration.ofMinutes(CACHE_NULL_TTL));
+                return null;
+            }
+            // 6、存在，写入redis
+            this.set(key, r, time, unit);
+            return r;
+        }, singleFlightTimeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 互斥锁解决缓存击穿：本节点内的并发未命中先合并成一次加载，
+     * 再由redis互斥锁决定哪个节点查询数据库，其他节点休眠后重试
+     */
+    public <R, ID> R queryWithMutex(
+            String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit){
+        String key = keyPrefix + id;
+        // 1、从redis查询缓存
+        CacheEntry entry = getEntry(key);
+        byte[] raw = entry.raw;
+        // 2、存在，直接返回，快过期的key按概率提前后台刷新
+        if (raw != null && raw.length > 0) {
+            if (shouldRefreshEarly(keyPrefix, entry.ttlMillis)) {
+                rebuildAsync(keyPrefix, id, dbFallback, r -> this.set(key, r, time, unit));
+            }
+            return cacheCodecs.decode(raw, type);
+        }
+        // 3、命中空值
+        if (raw != null) {
+            return null;
+        }
+        // 4、未命中，本节点只放一个线程去重建
+        return singleFlight.execute(key, () -> rebuildWithMutex(keyPrefix, id, type, dbFallback, time, unit),
+                singleFlightTimeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+    private <R, ID> R rebuildWithMutex(
+            String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit){
+        String key = keyPrefix + id;
+        String lockKey = "lock:" + key;
+        while (true) {
+            // 4.1 获取互斥锁
+            if (!tryLock(lockKey)) {
+                // 4.2 失败则休眠，再看其他节点是否已经重建好
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException(e);
+                }
+                byte[] raw = getRaw(key);
+                if (raw != null && raw.length > 0) {
+                    return cacheCodecs.decode(raw, type);
+                }
+                if (raw != null) {
+                    return null;
+                }
+                continue;
+            }
+            try {
+                // 4.3 成功，根据id查询数据库
+                R r = load(keyPrefix, id, dbFallback);
+                // 5、不存在，写入空值
+                if (r == null) {
+                    stringRedisTemplate.opsForValue().set(key, "", Duration.ofMinutes(CACHE_NULL_TTL));
+                    return null;
+                }
+                // 6、存在，写入redis
+                this.set(key, r, time, unit);
+                return r;
+            } finally {
+                // 7、释放互斥锁
+                unLock(lockKey);
+            }
+        }
+    }
+
+    /**
+     * 批量查询：一次MGET，未命中的id一次批量查询数据库，再一次pipeline回写（不存在的写空值）。
+     * 结果按ids顺序返回，不存在的id跳过
+     */
+    public <R, ID> List<R> queryByIds(
+            String keyPrefix, List<ID> ids, Class<R> type, Function<List<ID>, List<R>> dbBatchFallback,
+            Function<R, ID> idGetter, Long time, TimeUnit unit){
+        if (ids == null || ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        // 1、一次MGET查询缓存
+        byte[][] rawKeys = new byte[ids.size()][];
+        for (int i = 0; i < rawKeys.length; i++) {
+            rawKeys[i] = (keyPrefix + ids.get(i)).getBytes(StandardCharsets.UTF_8);
+        }
+        List<byte[]> raws = stringRedisTemplate.execute((RedisCallback<List<byte[]>>) connection -> connection.mGet(rawKeys));
+        Map<ID, R> found = new HashMap<>(ids.size() * 2);
+        Set<ID> misses = new LinkedHashSet<>();
+        for (int i = 0; i < ids.size(); i++) {
+            byte[] raw = raws == null ? null : cacheCodecs.stripVersion(raws.get(i));
+            if (raw == null) {
+                misses.add(ids.get(i));
+            } else if (raw.length > 0) {
+                found.put(ids.get(i), cacheCodecs.decode(raw, type));
+            }
+        }
+        // 2、未命中的一次查询数据库，pipeline回写
+        if (!misses.isEmpty()) {
+            List<R> loaded = dbBatchFallback.apply(new ArrayList<>(misses));
+            Map<String, R> values = new HashMap<>(loaded.size() * 2);
+            for (R r : loaded) {
+                ID id = idGetter.apply(r);
+                found.put(id, r);
+                values.put(keyPrefix + id, r);
+                misses.remove(id);
+            }
+            List<String> nullKeys = new ArrayList<>(misses.size());
+            for (ID id : misses) {
+                nullKeys.add(keyPrefix + id);
+            }
+            setBatch(values, nullKeys, unit.toMillis(time));
+        }
+        // 3、按ids顺序组装
+        List<R> result = new ArrayList<>(ids.size());
+        for (ID id : ids) {
+            R r = found.get(id);
+            if (r != null) {
+                result.add(r);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 逻辑过期解决缓存击穿，过期后立即返回旧数据，由后台线程池重建，一个key只重建一次
+     */
+    public <R, ID> R queryWithLogicalExpire(
+            String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit){
+        String key = keyPrefix + id;
+        // 1、从redis查询缓存
+        byte[] raw = getRaw(key);
+        // 2、命中空值
+        if (raw != null && raw.length == 0) {
+            return null;
+        }
+        // 3、未预热，同步加载一次，本节点并发请求合并
+        if (raw == null) {
+            return singleFlight.execute(key, () -> {
+                R r = load(keyPrefix, id, dbFallback);
+                if (r == null) {
+                    stringRedisTemplate.opsForValue().set(key, "", Duration.ofMinutes(CACHE_NULL_TTL));
+                    return null;
+                }
+                this.setWithLogicalExpire(key, r, time, unit);
+                return r;
+            }, singleFlightTimeoutMs, TimeUnit.MILLISECONDS);
+        }
+        // 4、命中，反序列化
+        RedisData redisData = cacheCodecs.decodeWithLogicalExpire(raw, type);
+        @SuppressWarnings("unchecked")
+        R r = (R) redisData.getData();
+        // 5、未过期，直接返回
+        if (redisData.getExpireTime().isAfter(LocalDateTime.now())) {
+            return r;
+        }
+        // 6、已过期，提交后台重建，先返回旧数据
+        rebuildAsync(keyPrefix, id, dbFallback, data -> this.setWithLogicalExpire(key, data, time, unit));
+        return r;
+    }
+
+    /**
+     * 后台重建，writer决定写入带ttl的值还是逻辑过期的值
+     */
+    private <R, ID> void rebuildAsync(String keyPrefix, ID id, Function<ID, R> dbFallback, Consumer<R> writer){
+        String key = keyPrefix + id;
+        // 1、本节点已经在重建
+        if (!rebuilding.add(key)) {
+            return;
+        }
+        // 2、跨节点互斥，只有一个节点重建
+        String lockKey = "lock:" + key;
+        if (!tryLock(lockKey)) {
+            rebuilding.remove(key);
+            return;
+        }
+        try {
+            CACHE_REBUILD_EXECUTOR.submit(() -> {
+                try {
+                    R r = load(keyPrefix, id, dbFallback);
+                    if (r == null) {
+                        stringRedisTemplate.opsForValue().set(key, "", Duration.ofMinutes(CACHE_NULL_TTL));
+                    } else {
+                        writer.accept(r);
+                    }
+                } catch (Exception e) {
+                    log.error("缓存重建失败, key={}", key, e);
+                } finally {
+                    unLock(lockKey);
+                    rebuilding.remove(key);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // 重建线程池已满，放弃本次重建，下次访问再试
+            unLock(lockKey);
+            rebuilding.remove(key);
+        }
+    }
+
+    private boolean tryLock(String key){
+        Boolean flag = stringRedisTemplate.opsForValue().setIfAbsent(key, "1", Duration.ofSeconds(10));
+        return BooleanUtil.isTrue(flag);
+    }
+
+    private void unLock(String key){
+        stringRedisTemplate.delete(key);
+    }
+
+    private static final class CacheEntry {
+        private final byte[] raw;
+        private final long ttlMillis;
+
+        private CacheEntry(byte[] raw, long ttlMillis) {
+            this.raw = raw;
+            this.ttlMillis = ttlMillis;
+        }
     }
 
 }
@@ -0,0 +1,138 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+/**
+ * 缓存值编码。写入按 hmdp.cache.codec 选择格式，读取按首字节识别格式，
+ * 灰度期间新旧节点写入的JSON和二进制值都能读取
+ */
+@Component
+public class CacheCodecs {
+
+    /**
+     * 逻辑过期值的头部：1字节标记 + 8字节过期时间戳，后面是编码后的数据
+     */
+    private static final byte LOGICAL_EXPIRE_MARK = (byte) 0xFD;
+    private static final int LOGICAL_EXPIRE_HEADER = 9;
+
+    /**
+     * 带版本的值：1字节标记 + 'v' + 十进制版本号 + ':' + 编码后的数据，lua脚本按版本号比较。
+     * 只有头部没有数据的是墓碑，读取时按未命中处理。
+     * 早期按update_time毫秒数做版本、没有'v'的头部，lua脚本按没有版本处理，读取时照样去掉
+     */
+    public static final byte VERSION_MARK = (byte) 0xFC;
+    private static final byte VERSION_PREFIX = 'v';
+
+    @Value("${hmdp.cache.codec:binary}")
+    private String codec;
+
+    @Value("${hmdp.cache.compress-threshold:512}")
+    private int compressThreshold;
+
+    private final JsonCacheCodec json = new JsonCacheCodec();
+    private BinaryCacheCodec binary;
+    private ICacheCodec writer;
+
+    @PostConstruct
+    private void init(){
+        binary = new BinaryCacheCodec(compressThreshold, json);
+        writer = "json".equalsIgnoreCase(codec) ? json : binary;
+    }
+
+    public byte[] encode(Object value){
+        return writer.encode(value);
+    }
+
+    public <T> T decode(byte[] bytes, Class<T> type){
+        return binary.decode(bytes, type);
+    }
+
+    public byte[] encodeVersioned(Object value, long version){
+        byte[] header = versionHeader(version);
+        byte[] data = writer.encode(value);
+        byte[] result = new byte[header.length + data.length];
+        System.arraycopy(header, 0, result, 0, header.length);
+        System.arraycopy(data, 0, result, header.length, data.length);
+        return result;
+    }
+
+    public static byte[] versionHeader(long version){
+        byte[] digits = String.valueOf(version).getBytes(StandardCharsets.US_ASCII);
+        byte[] header = new byte[digits.length + 3];
+        header[0] = VERSION_MARK;
+        header[1] = VERSION_PREFIX;
+        System.arraycopy(digits, 0, header, 2, digits.length);
+        header[header.length - 1] = ':';
+        return header;
+    }
+
+    /**
+     * 去掉版本头，墓碑返回null，没有版本头原样返回
+     */
+    public byte[] stripVersion(byte[] raw){
+        if (raw == null || raw.length == 0 || raw[0] != VERSION_MARK) {
+            return raw;
+        }
+        int split = 1;
+        while (split < raw.length && raw[split] != ':') {
+            split++;
+        }
+        if (split >= raw.length - 1) {
+            return null;
+        }
+        byte[] data = new byte[raw.length - split - 1];
+        System.arraycopy(raw, split + 1, data, 0, data.length);
+        return data;
+    }
+
+    public byte[] encodeWithLogicalExpire(Object value, LocalDateTime expireTime){
+        // JSON格式保持原来的RedisData结构
+        if (writer == json) {
+            RedisData redisData = new RedisData();
+            redisData.setData(value);
+            redisData.setExpireTime(expireTime);
+            return JSONUtil.toJsonStr(redisData).getBytes(StandardCharsets.UTF_8);
+        }
+        byte[] data = binary.encode(value);
+        long millis = expireTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        byte[] result = new byte[LOGICAL_EXPIRE_HEADER + data.length];
+        result[0] = LOGICAL_EXPIRE_MARK;
+        for (int i = 0; i < 8; i++) {
+            result[1 + i] = (byte) (millis >>> (i << 3));
+        }
+        System.arraycopy(data, 0, result, LOGICAL_EXPIRE_HEADER, data.length);
+        return result;
+    }
+
+    /**
+     * 解码逻辑过期值，返回的RedisData里data已经是type类型
+     */
+    public <T> RedisData decodeWithLogicalExpire(byte[] bytes, Class<T> type){
+        RedisData redisData = new RedisData();
+        if (bytes[0] != LOGICAL_EXPIRE_MARK) {
+            // 旧的RedisData JSON
+            RedisData old = JSONUtil.toBean(new String(bytes, StandardCharsets.UTF_8), RedisData.class);
+            redisData.setExpireTime(old.getExpireTime());
+            redisData.setData(JSONUtil.toBean((JSONObject) old.getData(), type));
+            return redisData;
+        }
+        long millis = 0;
+        for (int i = 0; i < 8; i++) {
+            millis |= (bytes[1 + i] & 0xFFL) << (i << 3);
+        }
+        byte[] data = new byte[bytes.length - LOGICAL_EXPIRE_HEADER];
+        System.arraycopy(bytes, LOGICAL_EXPIRE_HEADER, data, 0, data.length);
+        redisData.setExpireTime(LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault()));
+        redisData.setData(binary.decode(data, type));
+        return redisData;
+    }
+}
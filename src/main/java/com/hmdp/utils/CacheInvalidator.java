@@ -0,0 +1,189 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 缓存失效：在事务提交后删除缓存，并在延迟一段时间后再删一次（延迟双删），
+ * 防止并发读请求在提交前读到旧数据又写回缓存。
+ * 删除请求先放入待删集合，按批次窗口合并成一次pipeline，同时通知所有节点删除本地缓存。
+ * 带版本删除时留下一个短期墓碑，版本更旧的缓存重建写入会被拒绝
+ */
+@Slf4j
+@Component
+public class CacheInvalidator {
+
+    /**
+     * 没有版本，直接删除
+     */
+    private static final long NO_VERSION = 0;
+
+    private static final byte[] TOMBSTONE_SCRIPT;
+
+    static {
+        DefaultRedisScript<Long> script = new DefaultRedisScript<>();
+        script.setLocation(new ClassPathResource("cache_tombstone.lua"));
+        TOMBSTONE_SCRIPT = script.getScriptAsString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 第二次删除的延迟，要大于一次缓存重建（查库+写缓存）的耗时
+     */
+    @Value("${hmdp.cache.invalidate.delay-ms:500}")
+    private long delayMs;
+
+    /**
+     * 合并删除的时间窗口
+     */
+    @Value("${hmdp.cache.invalidate.batch-window-ms:10}")
+    private long batchWindowMs;
+
+    /**
+     * 墓碑存活时间，要大于一次缓存重建的耗时
+     */
+    @Value("${hmdp.cache.invalidate.tombstone-ttl-ms:5000}")
+    private long tombstoneTtlMs;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private NearCache nearCache;
+
+    /**
+     * 待删key及版本，同一个key保留最大的版本
+     */
+    private final Map<String, Long> pending = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "cache-invalidator");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @PostConstruct
+    private void init(){
+        scheduler.scheduleWithFixedDelay(this::flush, batchWindowMs, batchWindowMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    private void destroy(){
+        scheduler.shutdownNow();
+        flush();
+    }
+
+    public void invalidate(String... keys){
+        invalidate(Arrays.asList(keys));
+    }
+
+    /**
+     * 在事务中调用时，提交后才删除；事务回滚则不删除。不在事务中立即删除
+     */
+    public void invalidate(Collection<String> keys){
+        Map<String, Long> versions = new HashMap<>(keys.size() * 2);
+        for (String key : keys) {
+            versions.put(key, NO_VERSION);
+        }
+        afterCommit(versions);
+    }
+
+    /**
+     * 删除并留下墓碑，version是更新后数据的版本，即更新后行的version列
+     */
+    public void invalidate(String key, long version){
+        afterCommit(Collections.singletonMap(key, version));
+    }
+
+    private void afterCommit(Map<String, Long> versions){
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    enqueue(versions);
+                }
+            });
+            return;
+        }
+        enqueue(versions);
+    }
+
+    private void enqueue(Map<String, Long> versions){
+        versions.forEach((key, version) -> pending.merge(key, version, Math::max));
+        if (delayMs > 0) {
+            scheduler.schedule(
+                    () -> versions.forEach((key, version) -> pending.merge(key, version, Math::max)),
+                    delayMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void flush(){
+        if (pending.isEmpty()) {
+            return;
+        }
+        // 1、取出当前所有待删key，只有版本没被并发合并改大时才移除，改大的留到下个窗口
+        Map<String, Long> batch = new HashMap<>(pending.size() * 2);
+        for (Map.Entry<String, Long> entry : pending.entrySet()) {
+            String key = entry.getKey();
+            Long version = entry.getValue();
+            if (pending.remove(key, version)) {
+                batch.put(key, version);
+            }
+        }
+        List<String> keys = new ArrayList<>(batch.size());
+        List<byte[]> plainKeys = new ArrayList<>(batch.size());
+        batch.forEach((key, version) -> {
+            keys.add(key);
+            if (version == NO_VERSION) {
+                plainKeys.add(key.getBytes(StandardCharsets.UTF_8));
+            }
+        });
+        byte[] tombstoneTtl = String.valueOf(tombstoneTtlMs).getBytes(StandardCharsets.US_ASCII);
+        try {
+            // 2、一次pipeline：没有版本的合并成一次DEL，带版本的写墓碑
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                if (!plainKeys.isEmpty()) {
+                    connection.del(plainKeys.toArray(new byte[0][]));
+                }
+                batch.forEach((key, version) -> {
+                    if (version != NO_VERSION) {
+                        connection.eval(TOMBSTONE_SCRIPT, ReturnType.INTEGER, 1,
+                                key.getBytes(StandardCharsets.UTF_8),
+                                String.valueOf(version).getBytes(StandardCharsets.US_ASCII),
+                                tombstoneTtl);
+                    }
+                });
+                return null;
+            });
+            // 3、广播删除本地缓存
+            nearCache.invalidateAll(keys);
+        } catch (Exception e) {
+            // 4、删除失败放回去，下个窗口重试
+            log.error("删除缓存失败, keys={}", keys, e);
+            batch.forEach((key, version) -> pending.merge(key, version, Math::max));
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.hmdp.utils;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Count-Min Sketch：depth行、每行width个计数器，估计值只会偏大不会偏小
+ */
+public class CountMinSketch {
+
+    private final int depth;
+    private final int width;
+    private final AtomicLongArray counters;
+
+    public CountMinSketch(int depth, int width){
+        this.depth = depth;
+        this.width = width;
+        this.counters = new AtomicLongArray(depth * width);
+    }
+
+    public void add(long hash, long count){
+        for (int i = 0; i < depth; i++) {
+            counters.addAndGet(i * width + (int) IBloomFilter.index(hash, i, width), count);
+        }
+    }
+
+    public long estimate(long hash){
+        long min = Long.MAX_VALUE;
+        for (int i = 0; i < depth; i++) {
+            min = Math.min(min, counters.get(i * width + (int) IBloomFilter.index(hash, i, width)));
+        }
+        return min;
+    }
+}
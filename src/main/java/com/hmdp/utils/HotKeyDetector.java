@@ -0,0 +1,210 @@
+package com.hmdp.utils;
+
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.CACHE_INVALIDATE_CHANNEL;
+
+/**
+ * 热点key探测：读路径在查任何缓存之前记录访问，按采样率统计，滑动窗口由多个Count-Min Sketch轮转实现。
+ * 窗口内访问次数超过阈值的key升级为热点，只有 record 返回true的key才把值放进很短TTL的本地副本，
+ * 副本在 cache:invalidate 广播和热点降级时删除
+ */
+@Slf4j
+@Component
+public class HotKeyDetector implements MessageListener {
+
+    private static final int SKETCH_DEPTH = 4;
+    /**
+     * 一个窗口拆成几个子窗口，每过一个子窗口丢弃最旧的计数
+     */
+    private static final int SLOTS = 5;
+
+    @Value("${hmdp.cache.hot-key.enabled:true}")
+    private boolean enabled;
+
+    @Value("${hmdp.cache.hot-key.window-seconds:10}")
+    private long windowSeconds;
+
+    /**
+     * 窗口内访问次数超过该值成为热点
+     */
+    @Value("${hmdp.cache.hot-key.threshold:500}")
+    private long threshold;
+
+    /**
+     * 采样率，被采样的访问按 1/采样率 计数
+     */
+    @Value("${hmdp.cache.hot-key.sample-rate:0.1}")
+    private double sampleRate;
+
+    @Value("${hmdp.cache.hot-key.sketch-width:4096}")
+    private int sketchWidth;
+
+    /**
+     * 最多同时保存的热点key数
+     */
+    @Value("${hmdp.cache.hot-key.capacity:1000}")
+    private int capacity;
+
+    /**
+     * 热点key本地副本的过期时间
+     */
+    @Value("${hmdp.cache.hot-key.local-ttl-ms:3000}")
+    private long localTtlMs;
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    private final ScheduledExecutorService rotator = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "hot-key-rotator");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final CountMinSketch[] slots = new CountMinSketch[SLOTS];
+    private volatile int current;
+    private long weight;
+
+    /**
+     * 当前热点key及升级时的估计访问次数
+     */
+    private final Map<String, Long> hotKeys = new ConcurrentHashMap<>();
+
+    private LRUCache<String, Object> localCache;
+
+    @PostConstruct
+    private void init(){
+        if (!enabled) {
+            return;
+        }
+        for (int i = 0; i < SLOTS; i++) {
+            slots[i] = new CountMinSketch(SKETCH_DEPTH, sketchWidth);
+        }
+        weight = Math.max(1, Math.round(1 / sampleRate));
+        localCache = CacheUtil.newLRUCache(capacity, localTtlMs);
+        long period = TimeUnit.SECONDS.toMillis(windowSeconds) / SLOTS;
+        rotator.scheduleAtFixedRate(this::rotate, period, period, TimeUnit.MILLISECONDS);
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(CACHE_INVALIDATE_CHANNEL));
+    }
+
+    @PreDestroy
+    private void destroy(){
+        rotator.shutdownNow();
+    }
+
+    /**
+     * 记录一次访问
+     * @return key当前是否是热点
+     */
+    public boolean record(String key){
+        if (!enabled) {
+            return false;
+        }
+        if (ThreadLocalRandom.current().nextDouble() >= sampleRate) {
+            return hotKeys.containsKey(key);
+        }
+        long hash = key.hashCode();
+        slots[current].add(hash, weight);
+        if (hotKeys.containsKey(key)) {
+            return true;
+        }
+        long count = estimate(hash);
+        if (count < threshold || hotKeys.size() >= capacity) {
+            return false;
+        }
+        if (hotKeys.putIfAbsent(key, count) == null) {
+            log.info("发现热点key: {}, 窗口访问次数约{}", key, count);
+        }
+        return true;
+    }
+
+    /**
+     * 读取热点key的本地副本，调用方在 record 返回true时才读取
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T getLocal(String key, Class<T> type){
+        if (!enabled) {
+            return null;
+        }
+        // 读取不刷新过期时间，保证副本最多旧localTtlMs
+        Object value = localCache.get(key, false);
+        return type.isInstance(value) ? (T) value : null;
+    }
+
+    /**
+     * 保存热点key的本地副本，调用方在 record 返回true时才保存，已经降级的key不保存
+     */
+    public void putLocal(String key, Object value){
+        if (enabled && value != null && hotKeys.containsKey(key)) {
+            localCache.put(key, value);
+        }
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        if (enabled) {
+            localCache.remove(new String(message.getBody(), StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * 当前热点key，按估计访问次数从高到低
+     */
+    public Map<String, Long> hotKeys(){
+        Map<String, Long> counts = new HashMap<>();
+        for (String key : hotKeys.keySet()) {
+            counts.put(key, estimate(key.hashCode()));
+        }
+        Map<String, Long> result = new LinkedHashMap<>();
+        counts.entrySet().stream()
+                .sorted(Map.Entry.<String, Long>comparingByValue().reversed())
+                .forEach(entry -> result.put(entry.getKey(), entry.getValue()));
+        return result;
+    }
+
+    private long estimate(long hash){
+        long count = 0;
+        for (CountMinSketch slot : slots) {
+            count += slot.estimate(hash);
+        }
+        return count;
+    }
+
+    /**
+     * 丢弃最旧的子窗口，访问次数降到阈值以下的key降级
+     */
+    private void rotate(){
+        int next = (current + 1) % SLOTS;
+        slots[next] = new CountMinSketch(SKETCH_DEPTH, sketchWidth);
+        current = next;
+        hotKeys.keySet().removeIf(key -> {
+            if (estimate(key.hashCode()) >= threshold) {
+                return false;
+            }
+            localCache.remove(key);
+            log.info("热点key降级: {}", key);
+            return true;
+        });
+    }
+}
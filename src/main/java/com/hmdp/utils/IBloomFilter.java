@@ -0,0 +1,47 @@
+package com.hmdp.utils;
+
+public interface IBloomFilter {
+
+    void put(long id);
+
+    boolean mightContain(long id);
+
+    /**
+     * 位数组大小
+     */
+    long bitSize();
+
+    /**
+     * 哈希函数个数
+     */
+    int hashFunctions();
+
+    /**
+     * 根据预计元素数和误判率计算位数组大小 m = -n*ln(p)/(ln2)^2
+     */
+    static long optimalBits(long expectedInsertions, double fpp){
+        return Math.max(64, (long) (-expectedInsertions * Math.log(fpp) / (Math.log(2) * Math.log(2))));
+    }
+
+    /**
+     * 根据位数组大小计算哈希函数个数 k = m/n*ln2
+     */
+    static int optimalHashFunctions(long expectedInsertions, long bits){
+        return Math.max(1, (int) Math.round((double) bits / expectedInsertions * Math.log(2)));
+    }
+
+    /**
+     * 双重哈希得到第i个位下标
+     */
+    static long index(long id, int i, long bits){
+        long h1 = mix64(id);
+        long h2 = mix64(h1);
+        return Math.floorMod(h1 + i * h2, bits);
+    }
+
+    static long mix64(long z){
+        z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+        z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return z ^ (z >>> 33);
+    }
+}
@@ -0,0 +1,11 @@
+package com.hmdp.utils;
+
+/**
+ * 缓存值的编解码
+ */
+public interface ICacheCodec {
+
+    byte[] encode(Object value);
+
+    <T> T decode(byte[] bytes, Class<T> type);
+}
@@ -0,0 +1,7 @@
+package com.hmdp.utils;
+
+public interface IIdWorker {
+
+    long nextId(String keyPrefix);
+
+}
@@ -0,0 +1,17 @@
+package com.hmdp.utils;
+
+/**
+ * 附近店铺排序的打分函数，分数越高越靠前。实现类注册成Spring Bean后按 name 选择
+ */
+public interface IShopScorer {
+
+    /**
+     * 排序方式名称，对应接口的sortBy参数
+     */
+    String name();
+
+    /**
+     * 计算第i个候选店铺的分数，只能读取候选集，会被多个请求并发调用
+     */
+    double score(ShopCandidates candidates, int i);
+}
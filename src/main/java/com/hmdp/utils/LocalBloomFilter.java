@@ -0,0 +1,56 @@
+package com.hmdp.utils;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 进程内布隆过滤器，位数组放在JVM堆上
+ */
+public class LocalBloomFilter implements IBloomFilter {
+
+    private final long bits;
+    private final int hashFunctions;
+    private final AtomicLongArray data;
+
+    public LocalBloomFilter(long expectedInsertions, double fpp){
+        this.bits = IBloomFilter.optimalBits(expectedInsertions, fpp);
+        this.hashFunctions = IBloomFilter.optimalHashFunctions(expectedInsertions, bits);
+        this.data = new AtomicLongArray((int) ((bits + 63) >>> 6));
+    }
+
+    @Override
+    public void put(long id) {
+        for (int i = 0; i < hashFunctions; i++) {
+            long index = IBloomFilter.index(id, i, bits);
+            int word = (int) (index >>> 6);
+            long mask = 1L << index;
+            long old;
+            do {
+                old = data.get(word);
+                if ((old & mask) != 0) {
+                    break;
+                }
+            } while (!data.compareAndSet(word, old, old | mask));
+        }
+    }
+
+    @Override
+    public boolean mightContain(long id) {
+        for (int i = 0; i < hashFunctions; i++) {
+            long index = IBloomFilter.index(id, i, bits);
+            if ((data.get((int) (index >>> 6)) & (1L << index)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public long bitSize() {
+        return bits;
+    }
+
+    @Override
+    public int hashFunctions() {
+        return hashFunctions;
+    }
+}
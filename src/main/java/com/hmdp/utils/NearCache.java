@@ -0,0 +1,88 @@
+package com.hmdp.utils;
+
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.CACHE_INVALIDATE_CHANNEL;
+
+/**
+ * 进程内一级缓存，放在redis缓存前面，key和redis的key一致，值是反序列化好的对象。
+ * 按容量LRU淘汰并设置TTL，数据变更时通过redis pub/sub通知所有节点删除本地副本
+ */
+@Slf4j
+@Component
+public class NearCache implements MessageListener {
+
+    @Value("${hmdp.cache.local.capacity:10000}")
+    private int capacity;
+
+    @Value("${hmdp.cache.local.ttl-seconds:60}")
+    private long ttlSeconds;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    private LRUCache<String, Object> cache;
+
+    @PostConstruct
+    private void init(){
+        cache = CacheUtil.newLRUCache(capacity, TimeUnit.SECONDS.toMillis(ttlSeconds));
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(CACHE_INVALIDATE_CHANNEL));
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> T get(String key){
+        // 读取不刷新过期时间，保证本地副本最多旧ttlSeconds
+        return (T) cache.get(key, false);
+    }
+
+    public void put(String key, Object value){
+        if (value != null) {
+            cache.put(key, value);
+        }
+    }
+
+    /**
+     * 删除本地副本并广播给其他节点
+     */
+    public void invalidate(String key){
+        cache.remove(key);
+        stringRedisTemplate.convertAndSend(CACHE_INVALIDATE_CHANNEL, key);
+    }
+
+    /**
+     * 批量删除本地副本，一次pipeline广播
+     */
+    public void invalidateAll(Collection<String> keys){
+        keys.forEach(cache::remove);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (String key : keys) {
+                connection.publish(CACHE_INVALIDATE_CHANNEL.getBytes(StandardCharsets.UTF_8), key.getBytes(StandardCharsets.UTF_8));
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        cache.remove(new String(message.getBody(), StandardCharsets.UTF_8));
+    }
+}
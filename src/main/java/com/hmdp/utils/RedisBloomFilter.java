@@ -0,0 +1,73 @@
+package com.hmdp.utils;
+
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.util.List;
+
+/**
+ * 基于redis bitmap的布隆过滤器，所有节点共享一份位数组。
+ * key里带上位数和哈希函数个数，配置变化时自动换成新的bitmap
+ */
+public class RedisBloomFilter implements IBloomFilter {
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final String key;
+    private final long bits;
+    private final int hashFunctions;
+
+    public RedisBloomFilter(StringRedisTemplate stringRedisTemplate, String keyPrefix, long expectedInsertions, double fpp){
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.bits = IBloomFilter.optimalBits(expectedInsertions, fpp);
+        this.hashFunctions = IBloomFilter.optimalHashFunctions(expectedInsertions, bits);
+        this.key = keyPrefix + bits + ":" + hashFunctions;
+    }
+
+    @Override
+    public void put(long id) {
+        putAll(new long[]{id});
+    }
+
+    /**
+     * 一次pipeline写入一批id
+     */
+    public void putAll(long[] ids) {
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (long id : ids) {
+                for (int i = 0; i < hashFunctions; i++) {
+                    conn.setBit(key, IBloomFilter.index(id, i, bits), true);
+                }
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public boolean mightContain(long id) {
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (int i = 0; i < hashFunctions; i++) {
+                conn.getBit(key, IBloomFilter.index(id, i, bits));
+            }
+            return null;
+        });
+        for (Object result : results) {
+            if (!Boolean.TRUE.equals(result)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public long bitSize() {
+        return bits;
+    }
+
+    @Override
+    public int hashFunctions() {
+        return hashFunctions;
+    }
+}
@@ -1,24 +1,66 @@
 package com.hmdp.utils;
 
+import lombok.extern.slf4j.Slf4j;
 import org.apache.tomcat.jni.Time;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
+@Slf4j
 @Component
-public class RedisIdWorker {
+public class RedisIdWorker implements IIdWorker {
 
     private static final long BEGIN_TIMESTAMP = 1640995200L;
     private static final long COUNT_BITS = 32;
+    private static final long SECONDS_PER_DAY = 86400L;
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyy:MM:dd");
+
+    /**
+     * 号段预取线程，当前号段用掉一半时异步租下一个号段
+     */
+    private static final ExecutorService PREFETCH_EXECUTOR = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "id-segment-prefetch");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     private StringRedisTemplate stringRedisTemplate;
 
+    /**
+     * 号段模式：一次 INCRBY blockSize 租一段序列号，在本地发号
+     */
+    @Value("${hmdp.id.segment.enabled:false}")
+    private boolean segmentEnabled;
+
+    @Value("${hmdp.id.segment.block-size:1000}")
+    private long blockSize;
+
+    /**
+     * 每个业务前缀一个双缓冲号段
+     */
+    private final Map<String, SegmentBuffer> buffers = new ConcurrentHashMap<>();
+
+    /**
+     * 当天的日期key，跨天才重新格式化
+     */
+    private volatile DateKey dateKey = new DateKey(-1, null);
+
     public RedisIdWorker(StringRedisTemplate stringRedisTemplate){
         this.stringRedisTemplate = stringRedisTemplate;
     }
 
+    @Override
     public long nextId(String keyPrefix){
         // 1、生成时间戳
         LocalDateTime now = LocalDateTime.now();
@@ -26,12 +68,120 @@ public class RedisIdWorker {
         long timeStamp = nowSecond - BEGIN_TIMESTAMP;
         // 2、生成序列号
         // 2.1、获取当前日期
-        String date = now.format(DateTimeFormatter.ofPattern("yyy:MM:dd"));
-        long count = stringRedisTemplate.opsForValue().increment("icr:" + keyPrefix + ":" + date);
+        String date = currentDate(nowSecond);
+        long count = segmentEnabled
+                ? nextCount(keyPrefix, date)
+                : stringRedisTemplate.opsForValue().increment("icr:" + keyPrefix + ":" + date);
         // 3、拼接返回
         return timeStamp << COUNT_BITS | count;
     }
 
+    private String currentDate(long nowSecond) {
+        long day = Math.floorDiv(nowSecond, SECONDS_PER_DAY);
+        DateKey key = dateKey;
+        if (key.day != day) {
+            key = new DateKey(day, LocalDate.ofEpochDay(day).format(DATE_FORMATTER));
+            dateKey = key;
+        }
+        return key.date;
+    }
+
+    /**
+     * 从本地号段取序列号，号段用完时切换到预取好的号段，没有则同步租一个
+     */
+    private long nextCount(String keyPrefix, String date) {
+        SegmentBuffer buffer = buffers.computeIfAbsent(keyPrefix, k -> new SegmentBuffer());
+        while (true) {
+            Segment segment = buffer.current;
+            // 1、还没有号段，或者已经跨天，序列号必须从当天的key重新租
+            if (segment == null || !segment.date.equals(date)) {
+                synchronized (buffer) {
+                    if (buffer.current == segment) {
+                        buffer.current = lease(keyPrefix, date);
+                        buffer.next = null;
+                    }
+                }
+                continue;
+            }
+            // 2、无锁发号
+            long count = segment.cursor.getAndIncrement();
+            if (count <= segment.max) {
+                // 2.1 用掉一半，异步预取下一个号段
+                if (count - segment.start >= blockSize / 2 && buffer.next == null) {
+                    prefetch(buffer, keyPrefix, date);
+                }
+                return count;
+            }
+            // 3、号段用完，切换到下一个号段
+            synchronized (buffer) {
+                if (buffer.current == segment) {
+                    Segment next = buffer.next;
+                    buffer.current = next != null && next.date.equals(date) ? next : lease(keyPrefix, date);
+                    buffer.next = null;
+                }
+            }
+        }
+    }
+
+    private void prefetch(SegmentBuffer buffer, String keyPrefix, String date) {
+        if (!buffer.loading.compareAndSet(false, true)) {
+            return;
+        }
+        PREFETCH_EXECUTOR.submit(() -> {
+            try {
+                buffer.next = lease(keyPrefix, date);
+            } catch (Exception e) {
+                log.error("预取id号段失败, keyPrefix={}", keyPrefix, e);
+            } finally {
+                buffer.loading.set(false);
+            }
+        });
+    }
+
+    private Segment lease(String keyPrefix, String date) {
+        Long end = stringRedisTemplate.opsForValue().increment("icr:" + keyPrefix + ":" + date, blockSize);
+        if (end == null) {
+            throw new IllegalStateException("租用id号段失败: " + keyPrefix);
+        }
+        return new Segment(date, end - blockSize + 1, end);
+    }
+
+    private static final class DateKey {
+        private final long day;
+        private final String date;
+
+        private DateKey(long day, String date) {
+            this.day = day;
+            this.date = date;
+        }
+    }
+
+    /**
+     * 一个号段 [start, max]
+     */
+    private static final class Segment {
+        private final String date;
+        private final long start;
+        private final long max;
+        private final AtomicLong cursor;
+
+        private Segment(String date, long start, long max) {
+            this.date = date;
+            this.start = start;
+            this.max = max;
+            this.cursor = new AtomicLong(start);
+        }
+    }
+
+    /**
+     * 双缓冲：current 正在发号，next 预取好的下一个号段
+     */
+    private static final class SegmentBuffer {
+        private volatile Segment current;
+        private volatile Segment next;
+        private final AtomicBoolean loading = new AtomicBoolean();
+    }
+
     public static void main(String[] args){
         LocalDateTime time = LocalDateTime.of(2024, 1, 1, 0, 0, 0);
         long second = time.toEpochSecond(ZoneOffset.UTC);
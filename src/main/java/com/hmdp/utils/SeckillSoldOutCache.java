@@ -0,0 +1,116 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_SOLD_OUT_CHANNEL;
+
+/**
+ * 秒杀券本地售罄标记，售罄后的请求直接在JVM内拒绝，不再执行lua脚本；
+ * 标记的设置和清除通过redis pub/sub广播到所有节点。
+ * 标记只保留很短的时间，过期后下一个请求重新执行lua脚本确认库存，
+ * 补库存后迟到的售罄广播最多让节点多拒绝一个TTL
+ */
+@Slf4j
+@Component
+public class SeckillSoldOutCache implements MessageListener {
+
+    private static final String SOLD_OUT = "1:";
+    private static final String CLEAR = "0:";
+
+    /**
+     * 售罄的券及标记的过期时间
+     */
+    private final Map<Long, Long> soldOut = new ConcurrentHashMap<>();
+
+    @Value("${hmdp.seckill.sold-out-ttl-ms:1000}")
+    private long soldOutTtlMs;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    @PostConstruct
+    private void init(){
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(SECKILL_SOLD_OUT_CHANNEL));
+    }
+
+    public boolean isSoldOut(Long voucherId){
+        Long expireAt = soldOut.get(voucherId);
+        if (expireAt == null) {
+            return false;
+        }
+        if (expireAt > System.currentTimeMillis()) {
+            return true;
+        }
+        // 标记过期，放行请求去redis重新确认
+        soldOut.remove(voucherId, expireAt);
+        return false;
+    }
+
+    /**
+     * 标记售罄，本节点没有有效标记时才广播
+     */
+    public void markSoldOut(Long voucherId){
+        if (!isSoldOut(voucherId)) {
+            mark(voucherId);
+            stringRedisTemplate.convertAndSend(SECKILL_SOLD_OUT_CHANNEL, SOLD_OUT + voucherId);
+        }
+    }
+
+    /**
+     * 库存补充后清除所有节点的售罄标记，在事务中则提交后清除，避免提交前就放行请求
+     */
+    public void clear(Long voucherId){
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    doClear(voucherId);
+                }
+            });
+            return;
+        }
+        doClear(voucherId);
+    }
+
+    private void doClear(Long voucherId){
+        soldOut.remove(voucherId);
+        stringRedisTemplate.convertAndSend(SECKILL_SOLD_OUT_CHANNEL, CLEAR + voucherId);
+    }
+
+    private void mark(Long voucherId){
+        soldOut.put(voucherId, System.currentTimeMillis() + soldOutTtlMs);
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        try {
+            Long voucherId = Long.valueOf(body.substring(2));
+            if (body.startsWith(SOLD_OUT)) {
+                mark(voucherId);
+            } else if (body.startsWith(CLEAR)) {
+                soldOut.remove(voucherId);
+            }
+        } catch (RuntimeException e) {
+            log.error("无法解析售罄广播消息: {}", body, e);
+        }
+    }
+}
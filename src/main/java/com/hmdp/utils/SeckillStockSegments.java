@@ -0,0 +1,241 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_STREAM_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_SEGMENTS_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
+
+/**
+ * 热点秒杀券的分段库存。
+ * 库存拆成K个子key，用户按id哈希固定落在一个分段，一人一单只在这个分段的订单set里判断；
+ * 本分段库存不足时去兄弟分段借库存，每个lua脚本只操作一个分段。
+ * 订单消息按分段写入固定数量的stream分片，分段的库存key、订单key和所在分片的stream共用一个hash tag，
+ * 脚本用到的key全部通过KEYS传入，集群下同一个脚本只落在一个slot
+ */
+@Slf4j
+@Component
+public class SeckillStockSegments {
+
+    private static final DefaultRedisScript<Long> SEGMENT_SCRIPT;
+    private static final DefaultRedisScript<Long> BORROW_SCRIPT;
+    private static final DefaultRedisScript<Long> SEGMENT_ORDER_SCRIPT;
+
+    static {
+        SEGMENT_SCRIPT = new DefaultRedisScript<>();
+        SEGMENT_SCRIPT.setLocation(new ClassPathResource("seckill_segment.lua"));
+        SEGMENT_SCRIPT.setResultType(Long.class);
+
+        BORROW_SCRIPT = new DefaultRedisScript<>();
+        BORROW_SCRIPT.setLocation(new ClassPathResource("seckill_borrow.lua"));
+        BORROW_SCRIPT.setResultType(Long.class);
+
+        SEGMENT_ORDER_SCRIPT = new DefaultRedisScript<>();
+        SEGMENT_ORDER_SCRIPT.setLocation(new ClassPathResource("seckill_segment_order.lua"));
+        SEGMENT_ORDER_SCRIPT.setResultType(Long.class);
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    /**
+     * 新建秒杀券的库存分段数，1表示不分段
+     */
+    @Value("${hmdp.seckill.stock.segments:1}")
+    private int defaultSegments;
+
+    /**
+     * 分段key是否使用hash tag，分段的key和所在分片的stream落在同一个slot上
+     */
+    @Value("${hmdp.seckill.stock.hash-tag:false}")
+    private boolean hashTag;
+
+    /**
+     * 订单stream的分片数，一张券的各分段依次落在不同分片上，分片数不小于分段数时每个分段独占一个slot
+     */
+    @Value("${hmdp.seckill.order.stream-shards:1}")
+    private int streamShards;
+
+    /**
+     * 券的分段数在创建时确定，之后不会再变，本地缓存避免每次请求都查redis
+     */
+    private final Map<Long, Integer> segmentsCache = new ConcurrentHashMap<>();
+
+    /**
+     * 分段所在的stream分片，券id参与计算，不分段的券也能分散到各个分片
+     */
+    private int shardOf(Long voucherId, int segment) {
+        return Math.floorMod(voucherId.hashCode() + segment, Math.max(streamShards, 1));
+    }
+
+    private String key(String prefix, Long voucherId, int segment, int segments) {
+        String id = segments == 1 ? voucherId.toString() : voucherId + ":" + segment;
+        return hashTag ? prefix + "{seckill-" + shardOf(voucherId, segment) + "}:" + id : prefix + id;
+    }
+
+    public String stockKey(Long voucherId, int segment, int segments) {
+        return key(SECKILL_STOCK_KEY, voucherId, segment, segments);
+    }
+
+    public String orderKey(Long voucherId, int segment, int segments) {
+        return key(SECKILL_ORDER_KEY, voucherId, segment, segments);
+    }
+
+    /**
+     * 分片的stream key，不开hash tag时0号分片就是原来的 stream.orders
+     */
+    public String streamKey(int shard) {
+        if (hashTag) {
+            return SECKILL_ORDER_STREAM_KEY + "{seckill-" + shard + "}";
+        }
+        return shard == 0 ? SECKILL_ORDER_STREAM_KEY : SECKILL_ORDER_STREAM_KEY + ":" + shard;
+    }
+
+    /**
+     * 所有分片的stream key，消费者按分片读取
+     */
+    public List<String> streamKeys() {
+        int shards = Math.max(streamShards, 1);
+        List<String> keys = new ArrayList<>(shards);
+        for (int i = 0; i < shards; i++) {
+            keys.add(streamKey(i));
+        }
+        return keys;
+    }
+
+    /**
+     * 券的所有库存key，不分段时只有一个
+     */
+    public List<String> stockKeys(Long voucherId) {
+        int segments = segmentsOf(voucherId);
+        List<String> keys = new ArrayList<>(segments);
+        for (int i = 0; i < segments; i++) {
+            keys.add(stockKey(voucherId, i, segments));
+        }
+        return keys;
+    }
+
+    /**
+     * 查询券的分段数，老的券没有分段记录，按1处理。
+     * 只缓存查到的分段数：分段记录可能还没写入，缓存缺省值会让这张券一直按不分段处理
+     */
+    public int segmentsOf(Long voucherId) {
+        Integer cached = segmentsCache.get(voucherId);
+        if (cached != null) {
+            return cached;
+        }
+        String segments = stringRedisTemplate.opsForValue().get(SECKILL_SEGMENTS_KEY + voucherId);
+        if (StrUtil.isBlank(segments)) {
+            return 1;
+        }
+        int value = Integer.parseInt(segments);
+        segmentsCache.put(voucherId, value);
+        return value;
+    }
+
+    /**
+     * 新建秒杀券时写入库存，分段数>1时库存平均拆到各分段，余数给前面的分段
+     */
+    public void initStock(Long voucherId, int stock) {
+        int segments = Math.max(defaultSegments, 1);
+        for (int i = 0; i < segments; i++) {
+            int segmentStock = stock / segments + (i < stock % segments ? 1 : 0);
+            stringRedisTemplate.opsForValue().set(stockKey(voucherId, i, segments), String.valueOf(segmentStock));
+        }
+        stringRedisTemplate.opsForValue().set(SECKILL_SEGMENTS_KEY + voucherId, String.valueOf(segments));
+        segmentsCache.put(voucherId, segments);
+    }
+
+    /**
+     * 补充库存，同样平均加到各分段
+     */
+    public void addStock(Long voucherId, int stock) {
+        int segments = segmentsOf(voucherId);
+        for (int i = 0; i < segments; i++) {
+            int segmentStock = stock / segments + (i < stock % segments ? 1 : 0);
+            if (segmentStock > 0) {
+                stringRedisTemplate.opsForValue().increment(stockKey(voucherId, i, segments), segmentStock);
+            }
+        }
+    }
+
+    /**
+     * 秒杀下单，不分段的券只有一个分段
+     * @return 0 下单成功，1 所有分段库存不足，2 重复下单
+     */
+    public long seckill(Long voucherId, Long userId, long orderId) {
+        int segments = segmentsOf(voucherId);
+        String voucher = voucherId.toString();
+        String user = userId.toString();
+        String order = String.valueOf(orderId);
+        // 1、用户固定落在一个分段，一人一单在该分段的订单set里判断，订单消息写入该分段所在分片的stream
+        int home = Math.floorMod(userId.hashCode(), segments);
+        String orderKey = orderKey(voucherId, home, segments);
+        String streamKey = streamKey(shardOf(voucherId, home));
+        Long result = stringRedisTemplate.execute(
+                SEGMENT_SCRIPT,
+                Arrays.asList(stockKey(voucherId, home, segments), orderKey, streamKey),
+                voucher, user, order
+        );
+        if (result == null || result != 1) {
+            return result == null ? 1 : result;
+        }
+        // 2、本分段库存不足，依次去兄弟分段借库存
+        for (int i = 1; i < segments; i++) {
+            String siblingKey = stockKey(voucherId, (home + i) % segments, segments);
+            Long borrowed = stringRedisTemplate.execute(BORROW_SCRIPT, Collections.singletonList(siblingKey));
+            if (borrowed == null || borrowed == 0) {
+                continue;
+            }
+            // 3、借到库存，回到本分段登记订单；两个分段不在一个slot上，登记失败时补偿归还借到的库存
+            try {
+                result = stringRedisTemplate.execute(
+                        SEGMENT_ORDER_SCRIPT,
+                        Arrays.asList(orderKey, streamKey),
+                        voucher, user, order
+                );
+            } catch (RuntimeException e) {
+                giveBack(siblingKey, orderKey, user);
+                throw e;
+            }
+            if (result == null) {
+                giveBack(siblingKey, orderKey, user);
+                return 1;
+            }
+            if (result == 2) {
+                // 3.1 并发下已经下过单了，归还借到的库存
+                stringRedisTemplate.opsForValue().increment(siblingKey);
+            }
+            return result;
+        }
+        return 1;
+    }
+
+    /**
+     * 登记订单的调用失败时脚本可能已经执行，只是响应丢了：用户不在订单set里才归还库存，宁可少卖不超卖
+     */
+    private void giveBack(String siblingKey, String orderKey, String userId) {
+        try {
+            if (!Boolean.TRUE.equals(stringRedisTemplate.opsForSet().isMember(orderKey, userId))) {
+                stringRedisTemplate.opsForValue().increment(siblingKey);
+            }
+        } catch (RuntimeException e) {
+            log.error("归还借到的库存失败, stockKey={}, orderKey={}, userId={}", siblingKey, orderKey, userId, e);
+        }
+    }
+}
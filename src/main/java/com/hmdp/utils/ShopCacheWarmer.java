@@ -0,0 +1,218 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.WarmUpProgress;
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.ShopMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.ibatis.cursor.Cursor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_TTL;
+
+/**
+ * 店铺缓存和坐标预热：按主键顺序流式读取tb_shop，分批pipeline写入 cache:shop:* 和 shop:geo:{typeId}。
+ * 游标读的是扫描开始时的快照，每批按id重新读取当前行，缓存带版本写入，坐标按当前行写入，不会用旧数据覆盖新数据；
+ * redis故障切换后启动预热即可补齐坐标，不用等 ShopGeoSync 的定时对账。
+ * 按每秒行数限速，避免压垮mysql；启动时、定时以及通过管理接口触发，同一时间只跑一个
+ */
+@Slf4j
+@Component
+public class ShopCacheWarmer {
+
+    @Value("${hmdp.cache.warmup.on-startup:true}")
+    private boolean onStartup;
+
+    /**
+     * 定时预热间隔，0表示不定时
+     */
+    @Value("${hmdp.cache.warmup.interval-minutes:0}")
+    private long intervalMinutes;
+
+    @Value("${hmdp.cache.warmup.batch-size:500}")
+    private int batchSize;
+
+    /**
+     * 每秒最多读取的店铺数
+     */
+    @Value("${hmdp.cache.warmup.rows-per-second:5000}")
+    private long rowsPerSecond;
+
+    @Resource
+    private ShopMapper shopMapper;
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private ShopGeoSync shopGeoSync;
+
+    @Resource
+    private PlatformTransactionManager transactionManager;
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "shop-cache-warmer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final AtomicLong scanned = new AtomicLong();
+    private final AtomicLong cached = new AtomicLong();
+    private final AtomicLong geoAdded = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private volatile LocalDateTime startTime;
+    private volatile LocalDateTime endTime;
+    private volatile String error;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady(){
+        if (onStartup) {
+            start();
+        }
+        if (intervalMinutes > 0) {
+            executor.scheduleWithFixedDelay(this::start, intervalMinutes, intervalMinutes, TimeUnit.MINUTES);
+        }
+    }
+
+    @PreDestroy
+    private void destroy(){
+        executor.shutdownNow();
+    }
+
+    /**
+     * 异步开始预热
+     * @return 已经在预热中返回false
+     */
+    public boolean start(){
+        if (!running.compareAndSet(false, true)) {
+            return false;
+        }
+        scanned.set(0);
+        cached.set(0);
+        geoAdded.set(0);
+        batches.set(0);
+        startTime = LocalDateTime.now();
+        endTime = null;
+        error = null;
+        executor.execute(this::run);
+        return true;
+    }
+
+    public WarmUpProgress progress(){
+        WarmUpProgress progress = new WarmUpProgress();
+        progress.setRunning(running.get());
+        progress.setScanned(scanned.get());
+        progress.setCached(cached.get());
+        progress.setGeoAdded(geoAdded.get());
+        progress.setBatches(batches.get());
+        progress.setStartTime(startTime);
+        progress.setEndTime(endTime);
+        progress.setError(error);
+        return progress;
+    }
+
+    private void run(){
+        long begin = System.currentTimeMillis();
+        try {
+            // 游标只在事务内有效，只读事务里迭代完整张表
+            TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+            transactionTemplate.setReadOnly(true);
+            // 当前行在新事务里读取，不受游标快照影响
+            TransactionTemplate currentTemplate = new TransactionTemplate(transactionManager);
+            currentTemplate.setReadOnly(true);
+            currentTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+            transactionTemplate.executeWithoutResult(status -> {
+                try (Cursor<Shop> cursor = shopMapper.scanShops()) {
+                    List<Shop> batch = new ArrayList<>(batchSize);
+                    for (Shop shop : cursor) {
+                        batch.add(shop);
+                        if (batch.size() >= batchSize) {
+                            flush(batch, currentTemplate, begin);
+                            batch.clear();
+                        }
+                    }
+                    if (!batch.isEmpty()) {
+                        flush(batch, currentTemplate, begin);
+                    }
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            log.info("店铺缓存预热完成: 店铺={}, 写入={}, 坐标={}, 批次={}, 耗时={}ms",
+                    scanned.get(), cached.get(), geoAdded.get(), batches.get(), System.currentTimeMillis() - begin);
+        } catch (Exception e) {
+            error = e.getMessage();
+            log.error("店铺缓存预热失败, 已处理{}个店铺", scanned.get(), e);
+        } finally {
+            endTime = LocalDateTime.now();
+            running.set(false);
+        }
+    }
+
+    private void flush(List<Shop> batch, TransactionTemplate currentTemplate, long begin){
+        // 1、快照里的行可能已经被修改或删除，按id重新读取当前行，已删除的跳过
+        List<Long> ids = new ArrayList<>(batch.size());
+        for (Shop shop : batch) {
+            ids.add(shop.getId());
+        }
+        List<Shop> current = currentTemplate.execute(status -> shopMapper.selectBatchIds(ids));
+        // 2、pipeline带版本写入店铺缓存，缓存里已有更新的版本或墓碑时放弃写入
+        Map<String, Shop> values = new HashMap<>(batch.size() * 2);
+        Map<Long, Shop> shops = new HashMap<>(batch.size() * 2);
+        if (current != null) {
+            for (Shop shop : current) {
+                values.put(CACHE_SHOP_KEY + shop.getId(), shop);
+                shops.put(shop.getId(), shop);
+            }
+        }
+        cacheClient.setBatch(values, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        // 3、按当前行写入坐标，已删除或换了类型的从其他类型的key里删除
+        int added = shopGeoSync.write(ids, shops);
+        // 4、记录进度
+        long total = scanned.addAndGet(batch.size());
+        cached.addAndGet(values.size());
+        geoAdded.addAndGet(added);
+        if (batches.incrementAndGet() % 20 == 0) {
+            log.info("店铺缓存预热中: 已处理{}个店铺", total);
+        }
+        // 5、限速：处理速度超过rowsPerSecond时休眠
+        throttle(total, begin);
+    }
+
+    private void throttle(long total, long begin){
+        if (rowsPerSecond <= 0) {
+            return;
+        }
+        long expected = total * 1000 / rowsPerSecond;
+        long elapsed = System.currentTimeMillis() - begin;
+        if (expected > elapsed) {
+            try {
+                Thread.sleep(expected - elapsed);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("店铺缓存预热被中断", e);
+            }
+        }
+    }
+}
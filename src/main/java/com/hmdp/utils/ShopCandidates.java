@@ -0,0 +1,144 @@
+package com.hmdp.utils;
+
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 附近店铺排序的候选集，按列保存成基本类型数组，排序和打分时不创建对象、不拆箱。
+ * 字段直接公开给 IShopScorer 在循环里读取
+ */
+public final class ShopCandidates {
+
+    /**
+     * 营业时间未知
+     */
+    public static final int UNKNOWN_HOURS = -1;
+
+    /**
+     * open_hours形如 10:00-22:00，也允许 10:00~次日02:00 这样的写法
+     */
+    private static final Pattern OPEN_HOURS = Pattern.compile("(\\d{1,2}):(\\d{2})\\D+(\\d{1,2}):(\\d{2})");
+
+    public final double radius;
+    public int size;
+    public long[] ids;
+    /**
+     * 距离，米
+     */
+    public double[] distance;
+    /**
+     * 人均价格，未知为-1
+     */
+    public long[] avgPrice;
+    public int[] score;
+    public int[] sold;
+    public int[] comments;
+    /**
+     * log(1 + 销量)、log(1 + 评论数)，加载店铺时算好，打分时不再计算对数
+     */
+    public double[] logSold;
+    public double[] logComments;
+    /**
+     * 营业时间：开门分钟数 << 16 | 关门分钟数，关门早于开门表示营业到次日
+     */
+    public int[] openHours;
+
+    public long maxAvgPrice;
+    public double logMaxSold;
+    public double logMaxComments;
+
+    public ShopCandidates(double radius, int capacity){
+        this.radius = radius;
+        int n = Math.max(capacity, 16);
+        ids = new long[n];
+        distance = new double[n];
+        avgPrice = new long[n];
+        score = new int[n];
+        sold = new int[n];
+        comments = new int[n];
+        logSold = new double[n];
+        logComments = new double[n];
+        openHours = new int[n];
+    }
+
+    public void add(long id, double distance, long avgPrice, int score, int sold, int comments,
+                    double logSold, double logComments, int openHours){
+        if (size == ids.length) {
+            grow();
+        }
+        int i = size++;
+        this.ids[i] = id;
+        this.distance[i] = distance;
+        this.avgPrice[i] = avgPrice;
+        this.score[i] = score;
+        this.sold[i] = sold;
+        this.comments[i] = comments;
+        this.logSold[i] = logSold;
+        this.logComments[i] = logComments;
+        this.openHours[i] = openHours;
+        if (avgPrice > maxAvgPrice) {
+            maxAvgPrice = avgPrice;
+        }
+        if (logSold > logMaxSold) {
+            logMaxSold = logSold;
+        }
+        if (logComments > logMaxComments) {
+            logMaxComments = logComments;
+        }
+    }
+
+    private void grow(){
+        int n = ids.length << 1;
+        ids = Arrays.copyOf(ids, n);
+        distance = Arrays.copyOf(distance, n);
+        avgPrice = Arrays.copyOf(avgPrice, n);
+        score = Arrays.copyOf(score, n);
+        sold = Arrays.copyOf(sold, n);
+        comments = Arrays.copyOf(comments, n);
+        logSold = Arrays.copyOf(logSold, n);
+        logComments = Arrays.copyOf(logComments, n);
+        openHours = Arrays.copyOf(openHours, n);
+    }
+
+    public static double log(int count){
+        return count > 0 ? Math.log1p(count) : 0;
+    }
+
+    /**
+     * 解析open_hours，格式不对返回 UNKNOWN_HOURS
+     */
+    public static int parseOpenHours(String openHours){
+        if (openHours == null) {
+            return UNKNOWN_HOURS;
+        }
+        Matcher matcher = OPEN_HOURS.matcher(openHours);
+        if (!matcher.find()) {
+            return UNKNOWN_HOURS;
+        }
+        int open = Integer.parseInt(matcher.group(1)) * 60 + Integer.parseInt(matcher.group(2));
+        int close = Integer.parseInt(matcher.group(3)) * 60 + Integer.parseInt(matcher.group(4));
+        if (open > 24 * 60 || close > 24 * 60) {
+            return UNKNOWN_HOURS;
+        }
+        return open << 16 | close;
+    }
+
+    /**
+     * minuteOfDay时是否在营业，开门和关门时间相同按全天营业处理
+     */
+    public static boolean isOpen(int openHours, int minuteOfDay){
+        if (openHours == UNKNOWN_HOURS) {
+            return false;
+        }
+        int open = openHours >>> 16;
+        int close = openHours & 0xFFFF;
+        if (open == close) {
+            return true;
+        }
+        if (open < close) {
+            return minuteOfDay >= open && minuteOfDay < close;
+        }
+        return minuteOfDay >= open || minuteOfDay < close;
+    }
+}
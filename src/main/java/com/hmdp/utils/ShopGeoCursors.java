@@ -0,0 +1,132 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.IdUtil;
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.crypto.digest.DigestUtil;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.SHOP_GEO_CURSOR_KEY;
+
+/**
+ * 附近店铺的游标分页：第一页把按距离排好序的(店铺id, 距离)结果保存成一个短期快照，
+ * 之后每页用GETRANGE只读取这一页的字节，翻页开销与页码无关，翻页期间结果也不会变化。
+ * 快照存在redis里，任何节点都能继续翻页。游标里带着查询条件的摘要，换了条件继续翻页会被拒绝
+ */
+@Component
+public class ShopGeoCursors {
+
+    /**
+     * 每条结果8字节id + 8字节距离
+     */
+    private static final int ENTRY_BYTES = 16;
+
+    /**
+     * 一个快照最多保存的结果数
+     */
+    @Value("${hmdp.geo.cursor.max-results:500}")
+    private int maxResults;
+
+    @Value("${hmdp.geo.cursor.ttl-seconds:300}")
+    private long ttlSeconds;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    public int getMaxResults(){
+        return maxResults;
+    }
+
+    /**
+     * 保存快照
+     * @return 快照id
+     */
+    public String save(List<ShopGeoIndex.Nearby> results){
+        String snapshotId = IdUtil.fastSimpleUUID();
+        ByteBuffer buffer = ByteBuffer.allocate(results.size() * ENTRY_BYTES);
+        for (ShopGeoIndex.Nearby nearby : results) {
+            buffer.putLong(nearby.getId());
+            buffer.putDouble(nearby.getDistance());
+        }
+        byte[] rawKey = (SHOP_GEO_CURSOR_KEY + snapshotId).getBytes(StandardCharsets.UTF_8);
+        byte[] value = buffer.array();
+        stringRedisTemplate.execute((RedisCallback<Boolean>) connection -> connection.set(
+                rawKey, value, Expiration.from(ttlSeconds, TimeUnit.SECONDS), RedisStringCommands.SetOption.upsert()));
+        return snapshotId;
+    }
+
+    /**
+     * 读取快照的一页
+     * @return 快照已过期返回null，超出结果范围返回空列表
+     */
+    public List<ShopGeoIndex.Nearby> slice(String snapshotId, int offset, int size){
+        byte[] rawKey = (SHOP_GEO_CURSOR_KEY + snapshotId).getBytes(StandardCharsets.UTF_8);
+        long start = (long) offset * ENTRY_BYTES;
+        long end = start + (long) size * ENTRY_BYTES - 1;
+        // key不存在和超出结果范围时GETRANGE都返回空，先判断快照是否还在
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            connection.exists(rawKey);
+            connection.getRange(rawKey, start, end);
+            return null;
+        }, null);
+        if (!Boolean.TRUE.equals(results.get(0))) {
+            return null;
+        }
+        byte[] bytes = (byte[]) results.get(1);
+        List<ShopGeoIndex.Nearby> page = new ArrayList<>(size);
+        if (bytes == null) {
+            return page;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.remaining() >= ENTRY_BYTES) {
+            page.add(new ShopGeoIndex.Nearby(buffer.getLong(), buffer.getDouble()));
+        }
+        return page;
+    }
+
+    /**
+     * 查询条件的摘要，同一个快照的每一页都必须用相同的条件
+     */
+    public static String fingerprint(Object... params){
+        return DigestUtil.md5Hex16(StrUtil.join(":", params));
+    }
+
+    /**
+     * 游标对客户端不透明：快照id、下一页的偏移量和查询条件的摘要
+     */
+    public static String encodeCursor(String snapshotId, int offset, String fingerprint){
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString((snapshotId + ":" + offset + ":" + fingerprint).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return [快照id, 偏移量, 查询条件摘要]，格式不对或偏移量超出快照最大结果数返回null
+     */
+    public String[] decodeCursor(String cursor){
+        try {
+            String[] parts = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split(":");
+            if (parts.length != 3) {
+                return null;
+            }
+            int offset = Integer.parseInt(parts[1]);
+            if (offset < 0 || offset > maxResults) {
+                return null;
+            }
+            return parts;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,536 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.ShopMapper;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.ibatis.cursor.Cursor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.hmdp.utils.RedisConstants.SHOP_GEO_SYNC_CHANNEL;
+
+/**
+ * 本地店铺坐标索引：每个typeId一个经纬度网格，附近查询只计算覆盖半径的格子里的店铺，
+ * 不再把排序压在redis单线程上。启动后从tb_shop流式加载，店铺新增、修改提交后通过pub/sub
+ * 通知所有节点重新读取该店铺，并定时全量重建修复漏掉的消息。加载完成前 isReady 返回false。
+ * 收到的通知按店铺id合并，由单个线程串行重新读取，同一店铺的两次读取不会乱序覆盖。
+ * 同时按列缓存评分、销量等排序属性，供 ShopRanker 使用
+ */
+@Slf4j
+@Component
+public class ShopGeoIndex implements MessageListener {
+
+    /**
+     * 与redis GEO使用的地球半径一致，距离结果和GEOSEARCH可比
+     */
+    private static final double EARTH_RADIUS_METERS = 6372797.560856;
+    private static final double METERS_PER_DEGREE = EARTH_RADIUS_METERS * Math.PI / 180;
+
+    @Value("${hmdp.geo.index.enabled:true}")
+    private boolean enabled;
+
+    /**
+     * 网格边长，单位度，0.02度约2.2公里
+     */
+    @Value("${hmdp.geo.index.cell-degrees:0.02}")
+    private double cellDegrees;
+
+    /**
+     * 定时全量重建的间隔，0表示不重建
+     */
+    @Value("${hmdp.geo.index.reload-minutes:30}")
+    private long reloadMinutes;
+
+    @Resource
+    private ShopMapper shopMapper;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    @Resource
+    private PlatformTransactionManager transactionManager;
+
+    private final ScheduledExecutorService loader = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "shop-geo-index");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * 串行执行单个店铺的重新读取，不占用pub/sub的分发线程
+     */
+    private final ExecutorService refresher = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "shop-geo-refresh");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private volatile State state;
+
+    /**
+     * 等待重新读取的店铺id，同一店铺的多次通知只读取一次
+     */
+    private final Set<Long> pending = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 全量加载期间收到变更的店铺，加载完成后重新读取
+     */
+    private final Set<Long> dirty = ConcurrentHashMap.newKeySet();
+    private volatile boolean loading;
+    private final AtomicBoolean compacting = new AtomicBoolean();
+
+    @PostConstruct
+    private void init(){
+        if (enabled) {
+            redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(SHOP_GEO_SYNC_CHANNEL));
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady(){
+        if (!enabled) {
+            return;
+        }
+        loader.execute(this::reload);
+        if (reloadMinutes > 0) {
+            loader.scheduleWithFixedDelay(this::reload, reloadMinutes, reloadMinutes, TimeUnit.MINUTES);
+        }
+    }
+
+    @PreDestroy
+    private void destroy(){
+        loader.shutdownNow();
+        refresher.shutdownNow();
+    }
+
+    public boolean isReady(){
+        return state != null;
+    }
+
+    /**
+     * 店铺新增或修改后调用，在事务中则提交后通知所有节点
+     */
+    public void changed(Long shopId){
+        if (!enabled || shopId == null) {
+            return;
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    publish(shopId);
+                }
+            });
+            return;
+        }
+        publish(shopId);
+    }
+
+    private void publish(Long shopId){
+        stringRedisTemplate.convertAndSend(SHOP_GEO_SYNC_CHANNEL, shopId.toString());
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        Long shopId = Long.valueOf(new String(message.getBody(), StandardCharsets.UTF_8));
+        if (loading) {
+            dirty.add(shopId);
+        }
+        refresh(shopId);
+    }
+
+    /**
+     * 交给刷新线程重新读取，已经在等待的店铺不重复提交
+     */
+    private void refresh(Long shopId){
+        if (pending.add(shopId)) {
+            refresher.execute(this::drain);
+        }
+    }
+
+    /**
+     * 一次IN查询重新读取等待中的店铺，不存在或没有坐标则从索引中删除。
+     * 读取前先移出等待集合，读取期间的新通知会再读一次，单线程执行保证后读到的行不会被先读到的覆盖
+     */
+    private void drain(){
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<Long> ids = new ArrayList<>(pending);
+        pending.removeAll(ids);
+        State current = state;
+        if (current == null) {
+            return;
+        }
+        try {
+            Map<Long, Shop> shops = new HashMap<>(ids.size() * 2);
+            for (Shop shop : shopMapper.selectBatchIds(ids)) {
+                shops.put(shop.getId(), shop);
+            }
+            for (Long id : ids) {
+                Shop shop = shops.get(id);
+                if (shop == null) {
+                    current.remove(id);
+                } else {
+                    current.put(shop);
+                }
+            }
+        } catch (Exception e) {
+            log.error("同步店铺坐标失败, ids={}", ids, e);
+        }
+    }
+
+    /**
+     * 查询typeId下半径内最近的limit个店铺，按距离升序
+     * @param radiusMeters 半径，米
+     */
+    public List<Nearby> nearby(Long typeId, double x, double y, double radiusMeters, int limit){
+        State current = state;
+        if (current == null || limit <= 0) {
+            return Collections.emptyList();
+        }
+        // 大顶堆只保留最近的limit个
+        PriorityQueue<Nearby> heap = new PriorityQueue<>(
+                Math.min(limit, 64), Comparator.comparingDouble(Nearby::getDistance).reversed());
+        scan(current, typeId, x, y, radiusMeters, (id, entry, distance) -> {
+            if (heap.size() < limit) {
+                heap.add(new Nearby(id, distance));
+            } else if (distance < heap.peek().distance) {
+                heap.poll();
+                heap.add(new Nearby(id, distance));
+            }
+        });
+        // 堆里从远到近，倒序输出
+        Nearby[] result = new Nearby[heap.size()];
+        for (int i = result.length - 1; i >= 0; i--) {
+            result[i] = heap.poll();
+        }
+        List<Nearby> list = new ArrayList<>(result.length);
+        Collections.addAll(list, result);
+        return list;
+    }
+
+    /**
+     * 查询typeId下半径内的所有店铺及排序用的属性，交给 ShopRanker 排序
+     * @param radiusMeters 半径，米
+     */
+    public ShopCandidates candidates(Long typeId, double x, double y, double radiusMeters){
+        State current = state;
+        ShopCandidates candidates = new ShopCandidates(radiusMeters, 256);
+        if (current == null) {
+            return candidates;
+        }
+        scan(current, typeId, x, y, radiusMeters, (id, entry, distance) -> {
+            // 下标写入后不再修改，entry发布前已经写入对应的列
+            Columns columns = current.columns;
+            int slot = entry.slot;
+            candidates.add(id, distance, columns.avgPrice[slot], columns.score[slot],
+                    columns.sold[slot], columns.comments[slot],
+                    columns.logSold[slot], columns.logComments[slot], columns.openHours[slot]);
+        });
+        return candidates;
+    }
+
+    /**
+     * 遍历半径覆盖的格子，对半径内的每个店铺回调一次
+     */
+    private void scan(State current, Long typeId, double x, double y, double radiusMeters, Visitor visitor){
+        Map<Long, Set<Long>> cells = current.types.get(typeId);
+        if (cells == null) {
+            return;
+        }
+        // 1、半径覆盖的网格范围，纬度截断在±90，经度方向按纬度收缩
+        double latDelta = radiusMeters / METERS_PER_DEGREE;
+        double cos = Math.max(Math.cos(Math.toRadians(y)), 1e-6);
+        double lonDelta = radiusMeters / (METERS_PER_DEGREE * cos);
+        long minRow = cellOf(Math.max(y - latDelta, -90));
+        long maxRow = cellOf(Math.min(y + latDelta, 90));
+        double minLon = x - lonDelta;
+        double maxLon = x + lonDelta;
+        // 2、经度跨过±180时拆成两段，另一侧的店铺不会漏掉
+        if (maxLon - minLon >= 360) {
+            scanCells(current, cells, typeId, x, y, radiusMeters, minRow, maxRow, cellOf(-180), cellOf(180), visitor);
+        } else if (minLon < -180) {
+            scanCells(current, cells, typeId, x, y, radiusMeters, minRow, maxRow, cellOf(minLon + 360), cellOf(180), visitor);
+            scanCells(current, cells, typeId, x, y, radiusMeters, minRow, maxRow, cellOf(-180), cellOf(maxLon), visitor);
+        } else if (maxLon > 180) {
+            scanCells(current, cells, typeId, x, y, radiusMeters, minRow, maxRow, cellOf(minLon), cellOf(180), visitor);
+            scanCells(current, cells, typeId, x, y, radiusMeters, minRow, maxRow, cellOf(-180), cellOf(maxLon - 360), visitor);
+        } else {
+            scanCells(current, cells, typeId, x, y, radiusMeters, minRow, maxRow, cellOf(minLon), cellOf(maxLon), visitor);
+        }
+    }
+
+    /**
+     * 计算一段格子内店铺的距离
+     */
+    private void scanCells(State current, Map<Long, Set<Long>> cells, Long typeId, double x, double y,
+                           double radiusMeters, long minRow, long maxRow, long minCol, long maxCol, Visitor visitor){
+        for (long row = minRow; row <= maxRow; row++) {
+            for (long col = minCol; col <= maxCol; col++) {
+                long cell = cellKey(row, col);
+                Set<Long> ids = cells.get(cell);
+                if (ids == null) {
+                    continue;
+                }
+                for (Long id : ids) {
+                    // 店铺移动期间可能同时在新旧两个格子里，只按当前所在的格子计算
+                    Entry entry = current.entries.get(id);
+                    if (entry == null || entry.cell != cell || !entry.typeId.equals(typeId)) {
+                        continue;
+                    }
+                    double distance = distance(x, y, entry.x, entry.y);
+                    if (distance <= radiusMeters) {
+                        visitor.visit(id, entry, distance);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 流式读取tb_shop构建新索引，构建完成后整体替换
+     */
+    private void reload(){
+        long begin = System.currentTimeMillis();
+        loading = true;
+        try {
+            State fresh = new State();
+            TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+            transactionTemplate.setReadOnly(true);
+            transactionTemplate.executeWithoutResult(status -> {
+                try (Cursor<Shop> cursor = shopMapper.scanShops()) {
+                    for (Shop shop : cursor) {
+                        fresh.put(shop);
+                    }
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            state = fresh;
+            log.info("店铺坐标索引加载完成: 店铺={}, 耗时={}ms", fresh.entries.size(), System.currentTimeMillis() - begin);
+        } catch (Exception e) {
+            log.error("店铺坐标索引加载失败", e);
+        } finally {
+            loading = false;
+        }
+        // 加载期间变更的店铺可能没有进入新索引，重新读取一次
+        List<Long> changed = new ArrayList<>(dirty);
+        dirty.removeAll(changed);
+        changed.forEach(this::refresh);
+    }
+
+    /**
+     * 提交一次全量重建，已经在排队或加载中则忽略
+     */
+    private void requestCompaction(){
+        if (!loading && compacting.compareAndSet(false, true)) {
+            loader.execute(() -> {
+                try {
+                    reload();
+                } finally {
+                    compacting.set(false);
+                }
+            });
+        }
+    }
+
+    private long cellOf(double degrees){
+        return (long) Math.floor(degrees / cellDegrees);
+    }
+
+    private static long cellKey(long row, long col){
+        return (row << 32) | (col & 0xFFFFFFFFL);
+    }
+
+    /**
+     * haversine距离，米
+     */
+    public static double distance(double x1, double y1, double x2, double y2){
+        double lat1 = Math.toRadians(y1);
+        double lat2 = Math.toRadians(y2);
+        double sinLat = Math.sin((lat2 - lat1) / 2);
+        double sinLon = Math.sin(Math.toRadians(x2 - x1) / 2);
+        double a = sinLat * sinLat + Math.cos(lat1) * Math.cos(lat2) * sinLon * sinLon;
+        return 2 * EARTH_RADIUS_METERS * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    @Getter
+    public static final class Nearby {
+        private final long id;
+        /**
+         * 距离，米
+         */
+        private final double distance;
+
+        public Nearby(long id, double distance){
+            this.id = id;
+            this.distance = distance;
+        }
+    }
+
+    private interface Visitor {
+        void visit(long id, Entry entry, double distance);
+    }
+
+    private static final class Entry {
+        private final Long typeId;
+        private final double x;
+        private final double y;
+        private final long cell;
+        /**
+         * 排序属性在 Columns 里的下标
+         */
+        private final int slot;
+
+        private Entry(Long typeId, double x, double y, long cell, int slot){
+            this.typeId = typeId;
+            this.x = x;
+            this.y = y;
+            this.cell = cell;
+            this.slot = slot;
+        }
+    }
+
+    /**
+     * 排序用的店铺属性，按列存成基本类型数组，容量不够时整体复制扩容。
+     * 一个下标写入后不再修改，店铺属性变化时写到新的下标，并发读取不会读到一半新一半旧的值
+     */
+    private static final class Columns {
+        private final long[] avgPrice;
+        private final int[] score;
+        private final int[] sold;
+        private final int[] comments;
+        private final double[] logSold;
+        private final double[] logComments;
+        private final int[] openHours;
+
+        private Columns(int capacity){
+            avgPrice = new long[capacity];
+            score = new int[capacity];
+            sold = new int[capacity];
+            comments = new int[capacity];
+            logSold = new double[capacity];
+            logComments = new double[capacity];
+            openHours = new int[capacity];
+        }
+
+        private Columns(Columns old, int capacity){
+            avgPrice = Arrays.copyOf(old.avgPrice, capacity);
+            score = Arrays.copyOf(old.score, capacity);
+            sold = Arrays.copyOf(old.sold, capacity);
+            comments = Arrays.copyOf(old.comments, capacity);
+            logSold = Arrays.copyOf(old.logSold, capacity);
+            logComments = Arrays.copyOf(old.logComments, capacity);
+            openHours = Arrays.copyOf(old.openHours, capacity);
+        }
+
+        private int capacity(){
+            return score.length;
+        }
+
+        private void set(int slot, Shop shop){
+            avgPrice[slot] = shop.getAvgPrice() == null ? -1 : shop.getAvgPrice();
+            score[slot] = shop.getScore() == null ? 0 : shop.getScore();
+            sold[slot] = shop.getSold() == null ? 0 : shop.getSold();
+            comments[slot] = shop.getComments() == null ? 0 : shop.getComments();
+            logSold[slot] = ShopCandidates.log(sold[slot]);
+            logComments[slot] = ShopCandidates.log(comments[slot]);
+            openHours[slot] = ShopCandidates.parseOpenHours(shop.getOpenHours());
+        }
+    }
+
+    /**
+     * 一份完整的索引，全量重建时整体替换
+     */
+    private final class State {
+        private final Map<Long, Entry> entries = new ConcurrentHashMap<>();
+        /**
+         * typeId -> 格子 -> 店铺id
+         */
+        private final Map<Long, Map<Long, Set<Long>>> types = new ConcurrentHashMap<>();
+        /**
+         * 删除或修改后不再使用的下标不回收，全量重建时重新分配
+         */
+        private volatile Columns columns = new Columns(1024);
+        private int nextSlot;
+
+        private synchronized void put(Shop shop){
+            if (shop.getTypeId() == null || shop.getX() == null || shop.getY() == null) {
+                remove(shop.getId());
+                return;
+            }
+            // 1、写到新的下标（写时复制），再发布entry；正在读旧下标的查询看到的仍是完整的旧值
+            int slot = nextSlot++;
+            if (slot >= columns.capacity()) {
+                columns = new Columns(columns, columns.capacity() << 1);
+            }
+            columns.set(slot, shop);
+            Entry entry = new Entry(shop.getTypeId(), shop.getX(), shop.getY(),
+                    cellKey(cellOf(shop.getY()), cellOf(shop.getX())), slot);
+            // 2、先放入新格子再从旧格子删除，并发查询不会漏掉这个店铺
+            types.computeIfAbsent(entry.typeId, k -> new ConcurrentHashMap<>())
+                    .computeIfAbsent(entry.cell, k -> ConcurrentHashMap.newKeySet())
+                    .add(shop.getId());
+            Entry old = entries.put(shop.getId(), entry);
+            if (old != null && (!old.typeId.equals(entry.typeId) || old.cell != entry.cell)) {
+                removeFromCell(shop.getId(), old);
+            }
+            // 3、废弃的下标比在用的还多时提前全量重建，回收空间
+            if (nextSlot - entries.size() > Math.max(entries.size(), 1024)) {
+                requestCompaction();
+            }
+        }
+
+        private synchronized void remove(Long shopId){
+            Entry old = entries.remove(shopId);
+            if (old != null) {
+                removeFromCell(shopId, old);
+            }
+        }
+
+        private void removeFromCell(Long shopId, Entry entry){
+            Map<Long, Set<Long>> cells = types.get(entry.typeId);
+            Set<Long> ids = cells == null ? null : cells.get(entry.cell);
+            if (ids != null) {
+                ids.remove(shopId);
+            }
+        }
+    }
+}
@@ -0,0 +1,332 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.ShopType;
+import com.hmdp.mapper.ShopMapper;
+import com.hmdp.service.IShopTypeService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.geo.Point;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.hmdp.utils.RedisConstants.SHOP_GEO_KEY;
+
+/**
+ * 维护redis里的 shop:geo:{typeId}：店铺新增、修改、删除提交后记下店铺id，
+ * 按批次窗口合并成一次IN查询和一次pipeline，店铺换了类型时从其他类型的key里删除。
+ * 后台定时对账：流式读取tb_shop补齐缺失和位置不对的成员，再扫描每个类型的key删除多余的成员
+ */
+@Slf4j
+@Component
+public class ShopGeoSync {
+
+    /**
+     * GEO按52位geohash保存坐标，误差不到1米，超过这个距离才认为位置不对
+     */
+    private static final double POSITION_TOLERANCE_METERS = 1;
+
+    @Value("${hmdp.geo.sync.batch-window-ms:50}")
+    private long batchWindowMs;
+
+    /**
+     * 定时对账间隔，0表示不对账
+     */
+    @Value("${hmdp.geo.reconcile.interval-minutes:60}")
+    private long reconcileMinutes;
+
+    @Value("${hmdp.geo.reconcile.batch-size:500}")
+    private int reconcileBatchSize;
+
+    @Resource
+    private ShopMapper shopMapper;
+
+    @Resource
+    private IShopTypeService shopTypeService;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private PlatformTransactionManager transactionManager;
+
+    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2, r -> {
+        Thread thread = new Thread(r, "shop-geo-sync");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * 待同步的店铺id
+     */
+    private final Set<Long> pending = ConcurrentHashMap.newKeySet();
+
+    private final AtomicBoolean reconciling = new AtomicBoolean();
+
+    @PostConstruct
+    private void init(){
+        scheduler.scheduleWithFixedDelay(this::flush, batchWindowMs, batchWindowMs, TimeUnit.MILLISECONDS);
+        if (reconcileMinutes > 0) {
+            scheduler.scheduleWithFixedDelay(this::reconcile, reconcileMinutes, reconcileMinutes, TimeUnit.MINUTES);
+        }
+    }
+
+    @PreDestroy
+    private void destroy(){
+        scheduler.shutdownNow();
+        flush();
+    }
+
+    /**
+     * 店铺新增、修改或删除后调用，在事务中则提交后同步；事务回滚则不同步
+     */
+    public void changed(Long shopId){
+        if (shopId == null) {
+            return;
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    pending.add(shopId);
+                }
+            });
+            return;
+        }
+        pending.add(shopId);
+    }
+
+    private void flush(){
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<Long> ids = new ArrayList<>(pending);
+        pending.removeAll(ids);
+        try {
+            // 1、一次查询读取店铺当前的类型和坐标，查不到的是已删除的店铺
+            Map<Long, Shop> shops = new HashMap<>(ids.size() * 2);
+            for (Shop shop : shopMapper.selectBatchIds(ids)) {
+                shops.put(shop.getId(), shop);
+            }
+            // 2、按当前行写入
+            write(ids, shops);
+        } catch (Exception e) {
+            // 3、失败放回去，下个窗口重试
+            log.error("同步店铺坐标失败, ids={}", ids, e);
+            pending.addAll(ids);
+        }
+    }
+
+    /**
+     * 一次pipeline按店铺的当前行写入：写入当前类型的key，从其他类型的key里删除
+     * @param shops 店铺id到当前行，不在其中的是已删除的店铺
+     * @return 写入坐标的店铺数
+     */
+    public int write(List<Long> ids, Map<Long, Shop> shops){
+        List<Long> typeIds = typeIds();
+        int[] added = new int[1];
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (Long id : ids) {
+                Shop shop = shops.get(id);
+                Long current = shop != null && hasPosition(shop) ? shop.getTypeId() : null;
+                String member = id.toString();
+                for (Long typeId : typeIds) {
+                    if (!typeId.equals(current)) {
+                        conn.zRem(SHOP_GEO_KEY + typeId, member);
+                    }
+                }
+                if (current != null) {
+                    conn.geoAdd(SHOP_GEO_KEY + current, new Point(shop.getX(), shop.getY()), member);
+                    added[0]++;
+                }
+            }
+            return null;
+        });
+        return added[0];
+    }
+
+    /**
+     * 异步开始对账
+     * @return 已经在对账中返回false
+     */
+    public boolean startReconcile(){
+        if (reconciling.get()) {
+            return false;
+        }
+        scheduler.execute(this::reconcile);
+        return true;
+    }
+
+    private void reconcile(){
+        if (!reconciling.compareAndSet(false, true)) {
+            return;
+        }
+        long begin = System.currentTimeMillis();
+        try {
+            long[] fixed = new long[1];
+            // 1、按主键顺序流式读取tb_shop，补齐缺失或位置不对的成员
+            TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+            transactionTemplate.setReadOnly(true);
+            // 当前行在新事务里读取，不受游标快照影响
+            TransactionTemplate currentTemplate = new TransactionTemplate(transactionManager);
+            currentTemplate.setReadOnly(true);
+            currentTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+            transactionTemplate.executeWithoutResult(status -> {
+                try (org.apache.ibatis.cursor.Cursor<Shop> cursor = shopMapper.scanShops()) {
+                    List<Long> batch = new ArrayList<>(reconcileBatchSize);
+                    for (Shop shop : cursor) {
+                        batch.add(shop.getId());
+                        if (batch.size() >= reconcileBatchSize) {
+                            fixed[0] += reconcileShops(batch, currentTemplate);
+                            batch.clear();
+                        }
+                    }
+                    if (!batch.isEmpty()) {
+                        fixed[0] += reconcileShops(batch, currentTemplate);
+                    }
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            // 2、扫描每个类型的key，删除不存在、没有坐标或换了类型的店铺
+            long removed = 0;
+            for (Long typeId : typeIds()) {
+                removed += reconcileType(typeId);
+            }
+            log.info("店铺坐标对账完成: 修复={}, 删除={}, 耗时={}ms", fixed[0], removed, System.currentTimeMillis() - begin);
+        } catch (Exception e) {
+            log.error("店铺坐标对账失败", e);
+        } finally {
+            reconciling.set(false);
+        }
+    }
+
+    /**
+     * 一次pipeline读取这批店铺的坐标，缺失或偏差超过误差的重新写入
+     */
+    @SuppressWarnings("unchecked")
+    private long reconcileShops(List<Long> ids, TransactionTemplate currentTemplate){
+        // 1、快照里的行可能已经被修改或删除，按id重新读取当前行，已删除或没有坐标的跳过
+        List<Shop> current = currentTemplate.execute(status -> shopMapper.selectBatchIds(ids));
+        List<Shop> batch = new ArrayList<>(ids.size());
+        if (current != null) {
+            for (Shop shop : current) {
+                if (hasPosition(shop)) {
+                    batch.add(shop);
+                }
+            }
+        }
+        if (batch.isEmpty()) {
+            return 0;
+        }
+        // 2、按当前的类型和坐标比对
+        List<Object> positions = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (Shop shop : batch) {
+                conn.geoPos(SHOP_GEO_KEY + shop.getTypeId(), shop.getId().toString());
+            }
+            return null;
+        });
+        List<Shop> drifted = new ArrayList<>();
+        for (int i = 0; i < batch.size(); i++) {
+            Shop shop = batch.get(i);
+            List<Point> points = (List<Point>) positions.get(i);
+            Point point = points == null || points.isEmpty() ? null : points.get(0);
+            if (point == null || ShopGeoIndex.distance(point.getX(), point.getY(), shop.getX(), shop.getY())
+                    > POSITION_TOLERANCE_METERS) {
+                drifted.add(shop);
+            }
+        }
+        if (drifted.isEmpty()) {
+            return 0;
+        }
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (Shop shop : drifted) {
+                conn.geoAdd(SHOP_GEO_KEY + shop.getTypeId(), new Point(shop.getX(), shop.getY()), shop.getId().toString());
+            }
+            return null;
+        });
+        return drifted.size();
+    }
+
+    /**
+     * ZSCAN一个类型的key，按批查询数据库，删除多余的成员
+     */
+    private long reconcileType(Long typeId){
+        String key = SHOP_GEO_KEY + typeId;
+        long removed = 0;
+        ScanOptions options = ScanOptions.scanOptions().count(reconcileBatchSize).build();
+        try (Cursor<ZSetOperations.TypedTuple<String>> cursor = stringRedisTemplate.opsForZSet().scan(key, options)) {
+            List<Long> batch = new ArrayList<>(reconcileBatchSize);
+            while (cursor.hasNext()) {
+                String member = cursor.next().getValue();
+                if (member != null) {
+                    batch.add(Long.valueOf(member));
+                }
+                if (batch.size() >= reconcileBatchSize) {
+                    removed += removeStale(key, typeId, batch);
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty()) {
+                removed += removeStale(key, typeId, batch);
+            }
+        }
+        return removed;
+    }
+
+    private long removeStale(String key, Long typeId, List<Long> ids){
+        Set<Long> valid = new HashSet<>(ids.size() * 2);
+        for (Shop shop : shopMapper.selectBatchIds(ids)) {
+            if (typeId.equals(shop.getTypeId()) && hasPosition(shop)) {
+                valid.add(shop.getId());
+            }
+        }
+        Object[] stale = ids.stream().filter(id -> !valid.contains(id)).map(String::valueOf).toArray();
+        if (stale.length > 0) {
+            stringRedisTemplate.opsForZSet().remove(key, stale);
+        }
+        return stale.length;
+    }
+
+    private List<Long> typeIds(){
+        List<ShopType> types = shopTypeService.snapshot().getTypes();
+        List<Long> typeIds = new ArrayList<>(types.size());
+        for (ShopType type : types) {
+            typeIds.add(type.getId());
+        }
+        return typeIds;
+    }
+
+    private static boolean hasPosition(Shop shop){
+        return shop.getTypeId() != null && shop.getX() != null && shop.getY() != null;
+    }
+}
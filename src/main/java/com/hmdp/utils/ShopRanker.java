@@ -0,0 +1,141 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.dto.ShopRankQuery;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 附近店铺的排序阶段：在坐标索引取出的候选集上按条件筛选、用 IShopScorer 打分，
+ * 小顶堆只保留分数最高的limit个，整个过程只读写基本类型数组
+ */
+@Component
+public class ShopRanker {
+
+    public static final String DISTANCE = "distance";
+
+    private final Map<String, IShopScorer> scorers = new HashMap<>();
+
+    public ShopRanker(List<IShopScorer> scorers){
+        for (IShopScorer scorer : scorers) {
+            this.scorers.put(scorer.name(), scorer);
+        }
+    }
+
+    /**
+     * 按距离排序且没有筛选条件，不需要排序阶段
+     */
+    public static boolean isDistanceOnly(ShopRankQuery query){
+        return query == null
+                || (StrUtil.isBlank(query.getSortBy()) || DISTANCE.equals(query.getSortBy()))
+                && query.getMinPrice() == null && query.getMaxPrice() == null
+                && !Boolean.TRUE.equals(query.getOpenNow());
+    }
+
+    public boolean supports(String sortBy){
+        return StrUtil.isBlank(sortBy) || DISTANCE.equals(sortBy) || scorers.containsKey(sortBy);
+    }
+
+    public List<ShopGeoIndex.Nearby> rank(ShopCandidates candidates, ShopRankQuery query, int limit){
+        LocalTime now = LocalTime.now();
+        return rank(candidates, scorers.get(query.getSortBy()), query, limit, now.getHour() * 60 + now.getMinute());
+    }
+
+    /**
+     * @param scorer 为null时按距离排序
+     * @param minuteOfDay 判断是否营业用的当前时间
+     * @return 分数从高到低
+     */
+    public static List<ShopGeoIndex.Nearby> rank(
+            ShopCandidates c, IShopScorer scorer, ShopRankQuery query, int limit, int minuteOfDay){
+        if (limit <= 0 || c.size == 0) {
+            return new ArrayList<>(0);
+        }
+        long minPrice = query.getMinPrice() == null ? Long.MIN_VALUE : query.getMinPrice();
+        long maxPrice = query.getMaxPrice() == null ? Long.MAX_VALUE : query.getMaxPrice();
+        boolean priceFilter = query.getMinPrice() != null || query.getMaxPrice() != null;
+        boolean openNow = Boolean.TRUE.equals(query.getOpenNow());
+        // 1、小顶堆，堆顶是当前保留的结果里分数最低的
+        int capacity = Math.min(limit, c.size);
+        double[] heapScore = new double[capacity];
+        int[] heapIndex = new int[capacity];
+        int n = 0;
+        for (int i = 0; i < c.size; i++) {
+            // 2、筛选
+            if (priceFilter && (c.avgPrice[i] < 0 || c.avgPrice[i] < minPrice || c.avgPrice[i] > maxPrice)) {
+                continue;
+            }
+            if (openNow && !ShopCandidates.isOpen(c.openHours[i], minuteOfDay)) {
+                continue;
+            }
+            // 3、打分，分数比堆顶高才入堆
+            double score = scorer == null ? -c.distance[i] : scorer.score(c, i);
+            if (n < capacity) {
+                heapScore[n] = score;
+                heapIndex[n] = i;
+                siftUp(heapScore, heapIndex, n++);
+            } else if (score > heapScore[0]) {
+                heapScore[0] = score;
+                heapIndex[0] = i;
+                siftDown(heapScore, heapIndex, n);
+            }
+        }
+        // 4、依次弹出堆顶，从后往前填，得到分数从高到低的顺序
+        ShopGeoIndex.Nearby[] result = new ShopGeoIndex.Nearby[n];
+        while (n > 0) {
+            int i = heapIndex[0];
+            result[--n] = new ShopGeoIndex.Nearby(c.ids[i], c.distance[i]);
+            heapScore[0] = heapScore[n];
+            heapIndex[0] = heapIndex[n];
+            siftDown(heapScore, heapIndex, n);
+        }
+        List<ShopGeoIndex.Nearby> list = new ArrayList<>(result.length);
+        for (ShopGeoIndex.Nearby nearby : result) {
+            list.add(nearby);
+        }
+        return list;
+    }
+
+    private static void siftUp(double[] score, int[] index, int k){
+        while (k > 0) {
+            int parent = (k - 1) >>> 1;
+            if (score[parent] <= score[k]) {
+                return;
+            }
+            swap(score, index, parent, k);
+            k = parent;
+        }
+    }
+
+    private static void siftDown(double[] score, int[] index, int size){
+        int k = 0;
+        while (true) {
+            int child = (k << 1) + 1;
+            if (child >= size) {
+                return;
+            }
+            if (child + 1 < size && score[child + 1] < score[child]) {
+                child++;
+            }
+            if (score[k] <= score[child]) {
+                return;
+            }
+            swap(score, index, k, child);
+            k = child;
+        }
+    }
+
+    private static void swap(double[] score, int[] index, int a, int b){
+        double s = score[a];
+        score[a] = score[b];
+        score[b] = s;
+        int i = index[a];
+        index[a] = index[b];
+        index[b] = i;
+    }
+}
@@ -0,0 +1,48 @@
+package com.hmdp.utils;
+
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+
+/**
+ * 同一个JVM内，同一个key的并发加载合并成一次，其他线程等待同一个结果
+ */
+public class SingleFlight {
+
+    private final ConcurrentHashMap<String, CompletableFuture<Object>> calls = new ConcurrentHashMap<>();
+
+    /**
+     * @param key     合并的key
+     * @param loader  真正的加载逻辑，只有第一个到达的线程执行
+     * @param timeout 等待其他线程加载结果的最长时间
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T execute(String key, Supplier<T> loader, long timeout, TimeUnit unit) {
+        CompletableFuture<Object> call = new CompletableFuture<>();
+        CompletableFuture<Object> inFlight = calls.putIfAbsent(key, call);
+        // 1、已经有线程在加载，等待它的结果
+        if (inFlight != null) {
+            try {
+                return (T) inFlight.get(timeout, unit);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                throw cause instanceof RuntimeException ? (RuntimeException) cause : new RuntimeException(cause);
+            } catch (TimeoutException e) {
+                throw new RuntimeException("等待加载超时: " + key, e);
+            }
+        }
+        // 2、第一个到达，负责加载
+        try {
+            T value = loader.get();
+            call.complete(value);
+            return value;
+        } catch (RuntimeException | Error e) {
+            call.completeExceptionally(e);
+            throw e;
+        } finally {
+            calls.remove(key, call);
+        }
+    }
+}
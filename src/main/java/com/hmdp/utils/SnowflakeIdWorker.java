@@ -0,0 +1,190 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.UUID;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.ID_WORKER_KEY;
+import static com.hmdp.utils.RedisConstants.ID_WORKER_TTL;
+
+/**
+ * 雪花算法id：41位毫秒时间戳 + 10位workerId + 12位序列号。
+ * workerId 启动时从redis租一次并定时续期，发号完全在内存里完成。
+ * 配置 hmdp.id.generator=snowflake 时启用，并替代 RedisIdWorker 作为默认的 IIdWorker
+ */
+@Slf4j
+@Primary
+@Component
+@ConditionalOnProperty(name = "hmdp.id.generator", havingValue = "snowflake")
+public class SnowflakeIdWorker implements IIdWorker {
+
+    private static final long BEGIN_TIMESTAMP = 1640995200000L;
+    private static final long WORKER_BITS = 10;
+    private static final long SEQUENCE_BITS = 12;
+    private static final long MAX_WORKER_ID = (1L << WORKER_BITS) - 1;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+    /**
+     * 可以等待追平的最大时钟回拨毫秒数，超过直接报错
+     */
+    private static final long MAX_BACKWARD_MS = 5;
+    /**
+     * 租约到期前预留的安全余量，覆盖redis往返和节点间的时钟误差
+     */
+    private static final long LEASE_SAFETY_MS = 5000;
+
+    private static final DefaultRedisScript<Long> RENEW_SCRIPT;
+    private static final DefaultRedisScript<Long> RELEASE_SCRIPT;
+
+    static {
+        RENEW_SCRIPT = new DefaultRedisScript<>();
+        RENEW_SCRIPT.setLocation(new ClassPathResource("renew.lua"));
+        RENEW_SCRIPT.setResultType(Long.class);
+
+        RELEASE_SCRIPT = new DefaultRedisScript<>();
+        RELEASE_SCRIPT.setLocation(new ClassPathResource("unlock.lua"));
+        RELEASE_SCRIPT.setResultType(Long.class);
+    }
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final String token = UUID.randomUUID().toString(true);
+    private final ScheduledExecutorService heartbeat = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "id-worker-heartbeat");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private volatile long workerId = -1;
+    /**
+     * 最近一次租用或续期成功后，workerId可以放心使用到的时间点
+     */
+    private volatile long leaseValidUntil;
+    private long lastTimestamp = -1;
+    private long sequence;
+
+    public SnowflakeIdWorker(StringRedisTemplate stringRedisTemplate) {
+        this.stringRedisTemplate = stringRedisTemplate;
+    }
+
+    @PostConstruct
+    private void init() {
+        workerId = leaseWorkerId();
+        long period = ID_WORKER_TTL / 3;
+        heartbeat.scheduleAtFixedRate(this::renew, period, period, TimeUnit.SECONDS);
+        log.info("雪花id workerId={}", workerId);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        heartbeat.shutdownNow();
+        stringRedisTemplate.execute(RELEASE_SCRIPT, Collections.singletonList(ID_WORKER_KEY + workerId), token);
+    }
+
+    @Override
+    public synchronized long nextId(String keyPrefix) {
+        long worker = workerId;
+        if (worker < 0) {
+            throw new IllegalStateException("workerId租约已丢失，暂停发号");
+        }
+        long now = System.currentTimeMillis();
+        // 0、续期一直失败，租约快到期时可能被其他节点占用，暂停发号
+        if (now >= leaseValidUntil) {
+            throw new IllegalStateException("workerId=" + worker + "续期失败，租约即将过期，暂停发号");
+        }
+        // 1、时钟回拨，小幅回拨等待追平，大幅回拨拒绝发号
+        if (now < lastTimestamp) {
+            long backward = lastTimestamp - now;
+            if (backward > MAX_BACKWARD_MS) {
+                throw new IllegalStateException("时钟回拨" + backward + "ms，拒绝生成id");
+            }
+            now = waitUntilAfter(lastTimestamp - 1);
+        }
+        // 2、同一毫秒内序列号自增，用完则等到下一毫秒
+        if (now == lastTimestamp) {
+            sequence = (sequence + 1) & SEQUENCE_MASK;
+            if (sequence == 0) {
+                now = waitUntilAfter(lastTimestamp);
+            }
+        } else {
+            sequence = 0;
+        }
+        lastTimestamp = now;
+        // 3、拼接返回
+        return (now - BEGIN_TIMESTAMP) << (WORKER_BITS + SEQUENCE_BITS)
+                | worker << SEQUENCE_BITS
+                | sequence;
+    }
+
+    private long waitUntilAfter(long timestamp) {
+        long now = System.currentTimeMillis();
+        while (now <= timestamp) {
+            Thread.onSpinWait();
+            now = System.currentTimeMillis();
+        }
+        return now;
+    }
+
+    /**
+     * 从随机位置开始依次尝试 SET NX 一个空闲的workerId
+     */
+    private long leaseWorkerId() {
+        long start = ThreadLocalRandom.current().nextLong(MAX_WORKER_ID + 1);
+        for (long i = 0; i <= MAX_WORKER_ID; i++) {
+            long id = (start + i) & MAX_WORKER_ID;
+            long begin = System.currentTimeMillis();
+            Boolean success = stringRedisTemplate.opsForValue()
+                    .setIfAbsent(ID_WORKER_KEY + id, token, Duration.ofSeconds(ID_WORKER_TTL));
+            if (Boolean.TRUE.equals(success)) {
+                extendLease(begin);
+                return id;
+            }
+        }
+        throw new IllegalStateException("没有空闲的workerId");
+    }
+
+    private void renew() {
+        try {
+            long worker = workerId;
+            if (worker >= 0) {
+                long begin = System.currentTimeMillis();
+                Long renewed = stringRedisTemplate.execute(
+                        RENEW_SCRIPT,
+                        Collections.singletonList(ID_WORKER_KEY + worker),
+                        token,
+                        String.valueOf(TimeUnit.SECONDS.toMillis(ID_WORKER_TTL))
+                );
+                if (renewed != null && renewed == 1) {
+                    extendLease(begin);
+                    return;
+                }
+                // 租约过期且可能已被其他节点占用，不能再用这个workerId
+                log.error("workerId={}租约丢失，重新租用", worker);
+                workerId = -1;
+            }
+            workerId = leaseWorkerId();
+            log.info("重新租用雪花id workerId={}", workerId);
+        } catch (Exception e) {
+            log.error("workerId续期失败, 租约有效期至{}", leaseValidUntil, e);
+        }
+    }
+
+    /**
+     * 租约从发出请求时开始计算，扣掉安全余量
+     */
+    private void extendLease(long begin) {
+        leaseValidUntil = begin + TimeUnit.SECONDS.toMillis(ID_WORKER_TTL) - LEASE_SAFETY_MS;
+    }
+}
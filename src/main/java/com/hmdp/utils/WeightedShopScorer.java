@@ -0,0 +1,59 @@
+package com.hmdp.utils;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * 综合排序：距离、评分、销量、评论数、人均价格各自归一化到0~1后加权求和。
+ * 销量和评论数取对数，避免头部店铺的数量级差距压过其他因素；价格越低分数越高
+ */
+@Component
+public class WeightedShopScorer implements IShopScorer {
+
+    public static final String NAME = "composite";
+
+    /**
+     * score字段是评分乘以10，满分50
+     */
+    private static final double MAX_SCORE = 50;
+
+    private final double distanceWeight;
+    private final double scoreWeight;
+    private final double soldWeight;
+    private final double commentsWeight;
+    private final double priceWeight;
+
+    public WeightedShopScorer(
+            @Value("${hmdp.rank.weight.distance:0.35}") double distanceWeight,
+            @Value("${hmdp.rank.weight.score:0.3}") double scoreWeight,
+            @Value("${hmdp.rank.weight.sold:0.15}") double soldWeight,
+            @Value("${hmdp.rank.weight.comments:0.1}") double commentsWeight,
+            @Value("${hmdp.rank.weight.price:0.1}") double priceWeight){
+        this.distanceWeight = distanceWeight;
+        this.scoreWeight = scoreWeight;
+        this.soldWeight = soldWeight;
+        this.commentsWeight = commentsWeight;
+        this.priceWeight = priceWeight;
+    }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public double score(ShopCandidates c, int i) {
+        double value = distanceWeight * (1 - c.distance[i] / c.radius)
+                + scoreWeight * c.score[i] / MAX_SCORE;
+        if (c.logMaxSold > 0) {
+            value += soldWeight * c.logSold[i] / c.logMaxSold;
+        }
+        if (c.logMaxComments > 0) {
+            value += commentsWeight * c.logComments[i] / c.logMaxComments;
+        }
+        if (c.maxAvgPrice > 0 && c.avgPrice[i] >= 0) {
+            value += priceWeight * (1 - (double) c.avgPrice[i] / c.maxAvgPrice);
+        }
+        return value;
+    }
+}
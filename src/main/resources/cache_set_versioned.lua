@@ -0,0 +1,14 @@
+-- 带版本写入缓存：已缓存的值或墓碑版本更新时放弃写入
+-- 版本号是行的version列，每次更新加1，版本相同就是同一份数据，可以覆盖
+-- KEYS[1] 缓存key，ARGV[1] 版本号，ARGV[2] 带版本头的值，ARGV[3] 过期毫秒数
+local current = redis.call('get', KEYS[1])
+if (current) then
+    -- 版本头：\252 + 'v' + 十进制版本号 + ':'，没有'v'的旧版本头按没有版本处理
+    local version = string.match(current, '^\252v(%d+):')
+    if (version and tonumber(version) > tonumber(ARGV[1])) then
+        return 0
+    end
+end
+
+redis.call('set', KEYS[1], ARGV[2], 'PX', ARGV[3])
+return 1
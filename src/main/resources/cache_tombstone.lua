@@ -0,0 +1,14 @@
+-- 删除缓存并留下带版本的墓碑，之后版本更旧的重建写入会被拒绝
+-- 和带版本写入用同一个规则：版本相同就是同一份数据，只有更旧的版本会被替换
+-- KEYS[1] 缓存key，ARGV[1] 版本号，ARGV[2] 墓碑过期毫秒数
+local current = redis.call('get', KEYS[1])
+if (current) then
+    -- 已经缓存了这个版本或更新版本的数据（或墓碑），不需要删除；没有'v'的旧版本头按没有版本处理
+    local version = string.match(current, '^\252v(%d+):')
+    if (version and tonumber(version) >= tonumber(ARGV[1])) then
+        return 0
+    end
+end
+
+redis.call('set', KEYS[1], '\252v' .. ARGV[1] .. ':', 'PX', ARGV[2])
+return 1
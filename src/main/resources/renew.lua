@@ -0,0 +1,7 @@
+-- 比较持有者标识，一致则续期
+if (redis.call('get', KEYS[1]) == ARGV[1]) then
+    return redis.call('pexpire', KEYS[1], ARGV[2])
+end
+
+-- 已经不是自己持有
+return 0
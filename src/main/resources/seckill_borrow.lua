@@ -0,0 +1,8 @@
+-- 从兄弟分段借一个库存
+-- KEYS[1] 兄弟分段库存key
+if (tonumber(redis.call('get', KEYS[1]) or '0') <= 0) then
+    -- 兄弟分段也没有库存
+    return 0
+end
+redis.call('incrby', KEYS[1], -1)
+return 1
@@ -0,0 +1,30 @@
+-- 分段库存秒杀，只操作用户所在分段（同一个hash slot）
+-- KEYS[1] 分段库存key，KEYS[2] 分段订单key，KEYS[3] 分段所在分片的stream
+local stockKey = KEYS[1]
+local orderKey = KEYS[2]
+local streamKey = KEYS[3]
+-- 1.1优惠卷id
+local voucherId = ARGV[1]
+-- 1.2用户id
+local userId = ARGV[2]
+-- 1.3 订单id
+local orderId = ARGV[3]
+
+-- 先判断用户是否下单，重复下单不需要再去兄弟分段借库存
+if (redis.call('sismember', orderKey, userId) == 1) then
+    return 2
+end
+-- 判断本分段库存是否充足
+if (tonumber(redis.call('get', stockKey) or '0') <= 0) then
+    -- 本分段库存不足返回1，由调用方去兄弟分段借库存
+    return 1
+end
+-- 扣除库存
+redis.call('incrby', stockKey, -1)
+-- 下单
+redis.call('sadd', orderKey, userId)
+
+-- 发送消息到stream队列当中
+redis.call('xadd', streamKey, '*', 'userId', userId, 'voucherId', voucherId, 'id', orderId)
+
+return 0
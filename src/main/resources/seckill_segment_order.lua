@@ -0,0 +1,22 @@
+-- 借到库存后，在用户所在分段登记订单
+-- KEYS[1] 分段订单key，KEYS[2] 分段所在分片的stream
+local orderKey = KEYS[1]
+local streamKey = KEYS[2]
+-- 1.1优惠卷id
+local voucherId = ARGV[1]
+-- 1.2用户id
+local userId = ARGV[2]
+-- 1.3 订单id
+local orderId = ARGV[3]
+
+-- 判断用户是否下单，重复下单返回2，由调用方归还借到的库存
+if (redis.call('sismember', orderKey, userId) == 1) then
+    return 2
+end
+-- 下单
+redis.call('sadd', orderKey, userId)
+
+-- 发送消息到stream队列当中
+redis.call('xadd', streamKey, '*', 'userId', userId, 'voucherId', voucherId, 'id', orderId)
+
+return 0
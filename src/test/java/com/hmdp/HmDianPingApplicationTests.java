@@ -6,11 +6,15 @@ import org.springframework.boot.autoconfigure.cache.CacheProperties;
 import org.springframework.boot.test.context.SpringBootTest;
 
 import javax.annotation.Resource;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
 @SpringBootTest
 class HmDianPingApplicationTests {
     @Resource
@@ -20,9 +24,11 @@ class HmDianPingApplicationTests {
     @Test
     void testIdWorker() throws InterruptedException{
         CountDownLatch latch = new CountDownLatch(300);
+        Set<Long> ids = ConcurrentHashMap.newKeySet();
         Runnable task = () -> {
             for (int i = 0; i < 100; i++){
                 long id = redisIdWorker.nextId("order");
+                ids.add(id);
                 System.out.println("id=" + id);
             }
             latch.countDown();
@@ -34,5 +40,6 @@ class HmDianPingApplicationTests {
         latch.await();
         long end = System.currentTimeMillis();
         System.out.println("time = " + (end - begin));
+        assertEquals(30000, ids.size());
     }
 }
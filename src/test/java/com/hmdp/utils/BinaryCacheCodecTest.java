@@ -0,0 +1,202 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.entity.Blog;
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.ShopType;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BinaryCacheCodecTest {
+
+    private final BinaryCacheCodec codec = new BinaryCacheCodec(Integer.MAX_VALUE, new JsonCacheCodec());
+
+    private static Shop shop(){
+        return new Shop()
+                .setId(1L)
+                .setName("103茶餐厅")
+                .setTypeId(1L)
+                .setImages("https://qcloud.dpfile.com/pc/jiclIsCKmOI2arxKN1Uf0Hx3PucIJH8q0QSz-Z8llzcN56-_QiKuOvyio1OOxsRtFoXqu0G3iT2T27qat3WhLVEuLYk00OmSS1IdNpm8K8sG4JN9RIm2mTKcbLtc2o2vfCF2ubeXzk49OsGrXt_KYDCngOyCwZK-s3fqawWswzk.jpg")
+                .setArea("大关")
+                .setAddress("金华路锦昌文华苑29号")
+                .setX(120.149192)
+                .setY(30.316078)
+                .setAvgPrice(80L)
+                .setSold(4215)
+                .setComments(3035)
+                .setScore(37)
+                .setOpenHours("10:00-22:00")
+                .setCreateTime(LocalDateTime.of(2021, 12, 22, 18, 10, 39))
+                .setUpdateTime(LocalDateTime.of(2022, 1, 13, 17, 32, 19, 123_000_000))
+                .setVersion(7L);
+    }
+
+    private Shop roundTrip(Shop shop){
+        byte[] bytes = codec.encode(shop);
+        assertTrue(BinaryCacheCodec.isBinary(bytes));
+        return codec.decode(bytes, Shop.class);
+    }
+
+    @Test
+    void roundTripShop(){
+        Shop shop = shop();
+        Shop decoded = roundTrip(shop);
+        assertEquals(shop, decoded);
+        assertEquals(7L, decoded.getVersion());
+    }
+
+    @Test
+    void readsVersionOnePayload(){
+        // 版本1的Shop末尾没有version，去掉最后一个字节（version为null的标记）就是版本1的编码
+        Shop shop = shop().setVersion(null);
+        byte[] bytes = codec.encode(shop);
+        byte[] v1 = new byte[bytes.length - 1];
+        System.arraycopy(bytes, 0, v1, 0, v1.length);
+        v1[1] = 1;
+        Shop decoded = codec.decode(v1, Shop.class);
+        assertEquals(shop, decoded);
+        assertNull(decoded.getVersion());
+    }
+
+    @Test
+    void roundTripBlog(){
+        Blog blog = new Blog()
+                .setId(23L)
+                .setShopId(4L)
+                .setUserId(2L)
+                .setTitle("无尽浪漫的夜晚丨在万花丛中摇晃着红酒杯🍷品战斧牛排🥩")
+                .setImages("/imgs/blogs/7/14/4771fefb-1a87-4252-816c-9f7ec41ffa4a.jpg")
+                .setContent("生活就是一半烟火·一半诗意")
+                .setLiked(0)
+                .setComments(104)
+                .setCreateTime(LocalDateTime.of(2021, 12, 28, 19, 50, 1));
+        assertEquals(blog, codec.decode(codec.encode(blog), Blog.class));
+    }
+
+    @Test
+    void nullFields(){
+        Shop shop = new Shop().setId(2L);
+        Shop decoded = roundTrip(shop);
+        assertEquals(shop, decoded);
+        assertNull(decoded.getName());
+        assertNull(decoded.getX());
+        assertNull(decoded.getAvgPrice());
+        assertNull(decoded.getCreateTime());
+    }
+
+    @Test
+    void emptyStringIsNotNull(){
+        Shop decoded = roundTrip(shop().setName("").setOpenHours(""));
+        assertEquals("", decoded.getName());
+        assertEquals("", decoded.getOpenHours());
+    }
+
+    @Test
+    void negativeAndExtremeValues(){
+        Shop shop = shop()
+                .setId(Long.MAX_VALUE)
+                .setTypeId(-1L)
+                .setX(-180.0)
+                .setY(-0.0)
+                .setAvgPrice(-123456789012L)
+                .setSold(Integer.MIN_VALUE)
+                .setComments(Integer.MAX_VALUE)
+                .setScore(0)
+                .setCreateTime(LocalDateTime.of(1960, 1, 1, 0, 0));
+        Shop decoded = roundTrip(shop);
+        assertEquals(shop, decoded);
+        assertEquals(Double.doubleToRawLongBits(-0.0), Double.doubleToRawLongBits(decoded.getY()));
+    }
+
+    @Test
+    void longMinValueFallsBackToJson(){
+        // zigzag(Long.MIN_VALUE)+1 会和null的标记冲突，这种值整体退回JSON
+        Shop shop = shop().setAvgPrice(Long.MIN_VALUE);
+        byte[] bytes = codec.encode(shop);
+        assertFalse(BinaryCacheCodec.isBinary(bytes));
+        assertEquals(Long.MIN_VALUE, codec.decode(bytes, Shop.class).getAvgPrice());
+    }
+
+    @Test
+    void utf8Strings(){
+        Shop shop = shop()
+                .setName("蔡氏烧烤 Café ñ")
+                .setAddress("𠀋𩸽 emoji 😀 combining é")
+                .setArea("\u0000控制字符\t\n");
+        assertEquals(shop, roundTrip(shop));
+    }
+
+    @Test
+    void compressedPath(){
+        BinaryCacheCodec compressing = new BinaryCacheCodec(64, new JsonCacheCodec());
+        Shop shop = shop().setAddress(StrUtil.repeat("金华路锦昌文华苑29号", 50));
+        byte[] bytes = compressing.encode(shop);
+        assertTrue(BinaryCacheCodec.isBinary(bytes));
+        assertEquals(1, bytes[2] & 1, "超过阈值应当压缩");
+        assertTrue(bytes.length < codec.encode(shop).length);
+        assertEquals(shop, compressing.decode(bytes, Shop.class));
+        // 未压缩的值用开启压缩的codec也能读
+        assertEquals(shop, compressing.decode(codec.encode(shop), Shop.class));
+    }
+
+    @Test
+    void incompressibleValueStaysRaw(){
+        BinaryCacheCodec compressing = new BinaryCacheCodec(1, new JsonCacheCodec());
+        // 坐标是原样写入的8字节，短小且没有重复，deflate的头部和长度前缀就让结果更大
+        Random random = new Random(42);
+        Shop shop = new Shop().setId(3L).setX(random.nextDouble()).setY(random.nextDouble());
+        byte[] bytes = compressing.encode(shop);
+        assertEquals(0, bytes[2] & 1, "压缩后更大应当保留原文");
+        assertEquals(shop, compressing.decode(bytes, Shop.class));
+    }
+
+    @Test
+    void jsonFallbackDetection(){
+        // 1、切换到二进制格式之前写入的JSON值仍然可以读
+        Shop shop = shop().setUpdateTime(null).setCreateTime(null);
+        byte[] json = new JsonCacheCodec().encode(shop);
+        assertFalse(BinaryCacheCodec.isBinary(json));
+        assertEquals(shop, codec.decode(json, Shop.class));
+        // 2、没有注册schema的类型直接写JSON
+        ShopType type = new ShopType().setId(1L).setName("美食").setSort(1);
+        byte[] bytes = codec.encode(type);
+        assertArrayEquals(new JsonCacheCodec().encode(type), bytes);
+        assertEquals(type, codec.decode(bytes, ShopType.class));
+        // 3、UTF-8编码的JSON首字节不会是魔数
+        assertFalse(BinaryCacheCodec.isBinary("{}".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    void rejectsUnknownVersionAndTruncatedValue(){
+        byte[] bytes = codec.encode(shop());
+        byte[] newer = bytes.clone();
+        newer[1] = BinaryCacheCodec.VERSION + 1;
+        assertThrows(IllegalArgumentException.class, () -> codec.decode(newer, Shop.class));
+        byte[] truncated = new byte[bytes.length / 2];
+        System.arraycopy(bytes, 0, truncated, 0, truncated.length);
+        assertThrows(RuntimeException.class, () -> codec.decode(truncated, Shop.class));
+    }
+
+    @Test
+    void truncatedInputAtEveryLength(){
+        // 截断在字符串、浮点数、变长整数的任意位置都按截断报错
+        byte[] bytes = codec.encode(shop());
+        for (int length = 3; length < bytes.length; length++) {
+            byte[] truncated = new byte[length];
+            System.arraycopy(bytes, 0, truncated, 0, length);
+            IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                    () -> codec.decode(truncated, Shop.class), "length=" + length);
+            assertEquals("缓存值被截断", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.ShopRankQuery;
+import org.junit.jupiter.api.Test;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ShopRankerTest {
+
+    private static final int NOON = 12 * 60;
+
+    private final WeightedShopScorer scorer = new WeightedShopScorer(0.35, 0.3, 0.15, 0.1, 0.1);
+
+    private static long[] ids(List<ShopGeoIndex.Nearby> list){
+        return list.stream().mapToLong(ShopGeoIndex.Nearby::getId).toArray();
+    }
+
+    private static ShopRankQuery query(Long minPrice, Long maxPrice, Boolean openNow){
+        ShopRankQuery query = new ShopRankQuery();
+        query.setMinPrice(minPrice);
+        query.setMaxPrice(maxPrice);
+        query.setOpenNow(openNow);
+        return query;
+    }
+
+    /**
+     * 距离依次是 100、200、300...，人均价格和营业时间由参数给出
+     */
+    private static ShopCandidates candidates(long[] avgPrice, int[] openHours){
+        ShopCandidates c = new ShopCandidates(5000, avgPrice.length);
+        for (int i = 0; i < avgPrice.length; i++) {
+            c.add(i + 1, (i + 1) * 100, avgPrice[i], 40, 100, 10,
+                    ShopCandidates.log(100), ShopCandidates.log(10), openHours[i]);
+        }
+        return c;
+    }
+
+    @Test
+    void parseOpenHours(){
+        assertEquals(10 * 60 << 16 | 22 * 60, ShopCandidates.parseOpenHours("10:00-22:00"));
+        assertEquals(17 * 60 << 16 | 2 * 60, ShopCandidates.parseOpenHours("17:00~次日02:00"));
+        assertEquals(24 * 60, ShopCandidates.parseOpenHours("00:00-24:00"));
+        assertEquals(ShopCandidates.UNKNOWN_HOURS, ShopCandidates.parseOpenHours(null));
+        assertEquals(ShopCandidates.UNKNOWN_HOURS, ShopCandidates.parseOpenHours(""));
+        assertEquals(ShopCandidates.UNKNOWN_HOURS, ShopCandidates.parseOpenHours("全天营业"));
+        assertEquals(ShopCandidates.UNKNOWN_HOURS, ShopCandidates.parseOpenHours("10:00-25:00"));
+    }
+
+    @Test
+    void isOpenSameDay(){
+        int hours = ShopCandidates.parseOpenHours("10:00-22:00");
+        assertFalse(ShopCandidates.isOpen(hours, 9 * 60 + 59));
+        assertTrue(ShopCandidates.isOpen(hours, 10 * 60));
+        assertTrue(ShopCandidates.isOpen(hours, 21 * 60 + 59));
+        assertFalse(ShopCandidates.isOpen(hours, 22 * 60));
+    }
+
+    @Test
+    void isOpenOvernight(){
+        int hours = ShopCandidates.parseOpenHours("17:00-02:00");
+        assertFalse(ShopCandidates.isOpen(hours, NOON));
+        assertFalse(ShopCandidates.isOpen(hours, 16 * 60 + 59));
+        assertTrue(ShopCandidates.isOpen(hours, 17 * 60));
+        assertTrue(ShopCandidates.isOpen(hours, 23 * 60 + 59));
+        assertTrue(ShopCandidates.isOpen(hours, 0));
+        assertTrue(ShopCandidates.isOpen(hours, 60 + 59));
+        assertFalse(ShopCandidates.isOpen(hours, 2 * 60));
+    }
+
+    @Test
+    void isOpenAllDay(){
+        int fullDay = ShopCandidates.parseOpenHours("00:00-24:00");
+        int sameTime = ShopCandidates.parseOpenHours("08:00-08:00");
+        for (int minute = 0; minute < 24 * 60; minute++) {
+            assertTrue(ShopCandidates.isOpen(fullDay, minute));
+            assertTrue(ShopCandidates.isOpen(sameTime, minute));
+        }
+    }
+
+    @Test
+    void unknownHoursNeverOpen(){
+        assertFalse(ShopCandidates.isOpen(ShopCandidates.UNKNOWN_HOURS, 0));
+        assertFalse(ShopCandidates.isOpen(ShopCandidates.UNKNOWN_HOURS, NOON));
+        // 营业时间未知的店铺只在 openNow 时被过滤
+        int unknown = ShopCandidates.UNKNOWN_HOURS;
+        ShopCandidates c = candidates(new long[]{50, 50}, new int[]{unknown, ShopCandidates.parseOpenHours("10:00-22:00")});
+        assertArrayEquals(new long[]{1, 2}, ids(ShopRanker.rank(c, null, query(null, null, null), 10, NOON)));
+        assertArrayEquals(new long[]{2}, ids(ShopRanker.rank(c, null, query(null, null, true), 10, NOON)));
+    }
+
+    @Test
+    void priceFilterBoundaries(){
+        int open = ShopCandidates.parseOpenHours("00:00-24:00");
+        int[] hours = {open, open, open, open, open};
+        ShopCandidates c = candidates(new long[]{49, 50, 100, 150, 151}, hours);
+        // 区间两端都包含
+        assertArrayEquals(new long[]{2, 3, 4}, ids(ShopRanker.rank(c, null, query(50L, 150L, null), 10, NOON)));
+        assertArrayEquals(new long[]{2, 3, 4, 5}, ids(ShopRanker.rank(c, null, query(50L, null, null), 10, NOON)));
+        assertArrayEquals(new long[]{1, 2, 3, 4}, ids(ShopRanker.rank(c, null, query(null, 150L, null), 10, NOON)));
+        assertArrayEquals(new long[]{3}, ids(ShopRanker.rank(c, null, query(100L, 100L, null), 10, NOON)));
+        assertArrayEquals(new long[0], ids(ShopRanker.rank(c, null, query(151L, 150L, null), 10, NOON)));
+    }
+
+    @Test
+    void unknownPriceExcludedOnlyWhenFiltering(){
+        int open = ShopCandidates.parseOpenHours("00:00-24:00");
+        ShopCandidates c = candidates(new long[]{-1, 0}, new int[]{open, open});
+        assertArrayEquals(new long[]{1, 2}, ids(ShopRanker.rank(c, null, query(null, null, null), 10, NOON)));
+        assertArrayEquals(new long[]{2}, ids(ShopRanker.rank(c, null, query(null, 100L, null), 10, NOON)));
+    }
+
+    @Test
+    void limitLargerThanCandidates(){
+        int open = ShopCandidates.parseOpenHours("00:00-24:00");
+        ShopCandidates c = candidates(new long[]{10, 20, 30}, new int[]{open, open, open});
+        List<ShopGeoIndex.Nearby> list = ShopRanker.rank(c, null, query(null, null, null), 100, NOON);
+        assertArrayEquals(new long[]{1, 2, 3}, ids(list));
+        assertEquals(100, list.get(0).getDistance());
+        assertEquals(0, ShopRanker.rank(c, null, query(null, null, null), 0, NOON).size());
+        assertEquals(0, ShopRanker.rank(new ShopCandidates(5000, 0), scorer, query(null, null, null), 10, NOON).size());
+    }
+
+    @Test
+    void topKMatchesFullSort(){
+        Random random = new Random(42);
+        int[] hours = {
+                ShopCandidates.parseOpenHours("10:00-22:00"),
+                ShopCandidates.parseOpenHours("17:00-02:00"),
+                ShopCandidates.parseOpenHours("00:00-24:00"),
+                ShopCandidates.UNKNOWN_HOURS
+        };
+        ShopCandidates c = new ShopCandidates(5000, 256);
+        for (int i = 0; i < 2000; i++) {
+            int sold = random.nextInt(10000);
+            int comments = random.nextInt(5000);
+            c.add(i, random.nextDouble() * 5000, 20 + random.nextInt(300), random.nextInt(51),
+                    sold, comments, ShopCandidates.log(sold), ShopCandidates.log(comments),
+                    hours[random.nextInt(hours.length)]);
+        }
+        ShopRankQuery query = query(50L, 150L, true);
+        query.setSortBy(WeightedShopScorer.NAME);
+        long[] expected = IntStream.range(0, c.size)
+                .filter(i -> c.avgPrice[i] >= 50 && c.avgPrice[i] <= 150 && ShopCandidates.isOpen(c.openHours[i], NOON))
+                .boxed()
+                .sorted(Comparator.comparingDouble((Integer i) -> scorer.score(c, i)).reversed())
+                .limit(50).mapToLong(i -> c.ids[i]).toArray();
+        long[] actual = ids(ShopRanker.rank(c, scorer, query, 50, NOON));
+        assertEquals(50, actual.length);
+        assertArrayEquals(expected, actual, "堆排序结果与全量排序不一致");
+    }
+}